@@ -0,0 +1,126 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2015 Bruno P. Kinoshita, BioUno team
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package org.biouno.figshare;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.util.HashMap;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Publishing a synthetic workspace end to end: finding the files, hashing
+ * them as when skipping unchanged files, and uploading them with the
+ * {@link FileUploader} to a {@link StubDestination} that reads every file
+ * and answers after a fixed latency. The figshare API client is left out, its
+ * requests cannot be sent anywhere but to an HTTP server.
+ *
+ * @author Bruno P. Kinoshita
+ * @since 0.2
+ */
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@State(Scope.Benchmark)
+@Fork(value = 1, jvmArgsAppend = "-Dorg.biouno.figshare.RequestScheduler.maxRate=1000000")
+@Warmup(iterations = 2)
+@Measurement(iterations = 5)
+public class UploadBenchmark {
+
+    @Param({ "1000" })
+    public int files;
+
+    @Param({ "65536" })
+    public int size;
+
+    @Param({ "1", "4", "16" })
+    public int threads;
+
+    @Param({ "0", "5" })
+    public long latency;
+
+    private File tree;
+    private File checkpoints;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        tree = SyntheticTree.create(files, 100, size);
+        checkpoints = SyntheticTree.create(0, 1, 0);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        SyntheticTree.delete(tree);
+        SyntheticTree.delete(checkpoints);
+    }
+
+    @Benchmark
+    public long publish() throws Exception {
+        final PrintStream log = new PrintStream(new OutputStream() {
+            @Override
+            public void write(int b) {
+            }
+
+            @Override
+            public void write(byte[] b, int off, int len) {
+            }
+        });
+        final StubDestination destination = new StubDestination(latency);
+        final UploadCheckpoint checkpoint = new UploadCheckpoint(checkpoints, "benchmark");
+        checkpoint.start(1);
+        final UploadOptions options = UploadOptions.of(threads, 0, 0, false, false, false);
+        final PublishResult result = new PublishResult(1, new UploadStatistics());
+        final FileUploader uploader = new FileUploader(destination, 1, options, checkpoint,
+                new HashMap<String, String>(), result, log);
+        try {
+            new FileFinder("**/*.dat").scan(tree, new FileFinder.Handler() {
+                @Override
+                public void found(String path, File file) throws InterruptedException {
+                    uploader.submit(path, file);
+                }
+            });
+            uploader.awaitCompletion();
+        } finally {
+            uploader.close();
+            checkpoint.delete();
+            result.discard();
+        }
+        return destination.getBytes();
+    }
+
+}
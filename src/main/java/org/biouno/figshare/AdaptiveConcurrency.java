@@ -0,0 +1,150 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2015 Bruno P. Kinoshita, BioUno team
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package org.biouno.figshare;
+
+import java.io.PrintStream;
+
+/**
+ * <p>
+ * Number of files uploaded at the same time, adapted to the throughput
+ * measured, so that fast links are saturated and slow ones are not
+ * overloaded.
+ * </p>
+ *
+ * <p>
+ * Uploads are measured in rounds of as many files as the current limit. The
+ * limit doubles after every round while the throughput keeps growing, as in
+ * TCP slow start, then grows by one per round. It goes down by one when a
+ * round is slower than the one before, and is halved when requests of the
+ * round failed or were throttled by figshare. Every change is printed, with
+ * the throughput that caused it.
+ * </p>
+ *
+ * @author Bruno P. Kinoshita
+ * @since 0.2
+ */
+final class AdaptiveConcurrency {
+
+    private static final double MB = 1024 * 1024;
+
+    /*
+     * Throughput drop tolerated before lowering the limit, as measurements
+     * are noisy.
+     */
+    private static final double TOLERANCE = 0.95;
+
+    private final int max;
+    private final UploadStatistics statistics;
+    private final PrintStream ps;
+    private int limit = 1;
+    private int active;
+    private boolean slowStart = true;
+    private long roundStart = -1;
+    private long roundBytes;
+    private int roundFiles;
+    private boolean roundFailed;
+    private long roundRetries;
+    private double lastRate;
+
+    /**
+     * @param max maximum number of concurrent uploads
+     * @param statistics statistics, whose retries show throttling
+     * @param ps job output
+     */
+    AdaptiveConcurrency(int max, UploadStatistics statistics, PrintStream ps) {
+        this.max = Math.max(1, max);
+        this.statistics = statistics;
+        this.ps = ps;
+    }
+
+    /**
+     * @return the number of uploads that may run at the same time
+     */
+    synchronized int getLimit() {
+        return limit;
+    }
+
+    /**
+     * Wait until one more upload may start.
+     *
+     * @throws InterruptedException if interrupted
+     */
+    synchronized void acquire() throws InterruptedException {
+        while (active >= limit) {
+            wait();
+        }
+        active++;
+        if (roundStart < 0) {
+            roundStart = System.currentTimeMillis();
+            roundRetries = statistics.getRetries();
+        }
+    }
+
+    /**
+     * Record the end of an upload.
+     *
+     * @param bytes bytes uploaded
+     * @param failed whether the upload failed
+     */
+    synchronized void release(long bytes, boolean failed) {
+        active--;
+        roundBytes += bytes;
+        roundFiles++;
+        roundFailed |= failed;
+        if (roundFiles >= limit) {
+            adjust();
+        }
+        notifyAll();
+    }
+
+    private void adjust() {
+        final long now = System.currentTimeMillis();
+        final double rate = roundBytes * 1000d / Math.max(1, now - roundStart);
+        final int previous = limit;
+        final String reason;
+        if (roundFailed || statistics.getRetries() > roundRetries) {
+            slowStart = false;
+            limit = Math.max(1, limit / 2);
+            reason = "requests failed or were throttled";
+        } else if (rate >= lastRate * TOLERANCE) {
+            limit = Math.min(max, slowStart ? limit * 2 : limit + 1);
+            reason = "throughput held";
+        } else {
+            slowStart = false;
+            limit = Math.max(1, limit - 1);
+            reason = "throughput dropped";
+        }
+        if (limit != previous) {
+            ps.println(String.format("Upload concurrency %s from %d to %d: %s at %.2f MB/s", limit > previous
+                    ? "raised" : "lowered", previous, limit, reason, rate / MB));
+        }
+        lastRate = rate;
+        roundStart = now;
+        roundBytes = 0;
+        roundFiles = 0;
+        roundFailed = false;
+        roundRetries = statistics.getRetries();
+    }
+
+}
@@ -0,0 +1,212 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2015 Bruno P. Kinoshita, BioUno team
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package org.biouno.figshare;
+
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.regex.Pattern;
+
+/**
+ * <p>
+ * An Ant-like pattern (e.g. <code>reports/**&#47;*.png</code>) compiled to a
+ * regular expression, matching paths relative to the workspace and separated
+ * by <code>/</code>.
+ * </p>
+ *
+ * <p>
+ * Besides matching files, a pattern can tell whether a directory may contain
+ * matching files at all, so that directory walks can skip whole sub trees.
+ * </p>
+ *
+ * <p>
+ * Patterns match as in Ant, except that a leading <code>./</code> or
+ * <code>/</code> is ignored, where Ant would match nothing.
+ * </p>
+ *
+ * @author Bruno P. Kinoshita
+ * @since 0.2
+ */
+final class AntPattern implements Serializable {
+
+    /*
+     * Serial UID.
+     */
+    private static final long serialVersionUID = 4150009935212981233L;
+
+    private final String pattern;
+    private final Pattern regex;
+    /*
+     * Leading directories without wildcards, e.g. reports for
+     * reports/**\/*.png.
+     */
+    private final String[] prefix;
+    /*
+     * Maximum directory depth of a match, or -1 when the pattern contains **.
+     */
+    private final int maxDepth;
+
+    /**
+     * Compile a pattern.
+     *
+     * @param pattern Ant-like pattern
+     */
+    AntPattern(String pattern) {
+        String normalized = pattern.trim().replace('\\', '/');
+        while (normalized.startsWith("./")) {
+            normalized = normalized.substring(2);
+        }
+        while (normalized.startsWith("/")) {
+            normalized = normalized.substring(1);
+        }
+        if (normalized.endsWith("/")) {
+            // as in Ant, a trailing slash means everything under the directory
+            normalized = normalized + "**";
+        }
+        this.pattern = normalized;
+
+        final String[] segments = normalized.split("/");
+        final StringBuilder sb = new StringBuilder();
+        final List<String> leading = new ArrayList<String>();
+        boolean wildcard = false;
+        boolean recursive = false;
+        for (int i = 0; i < segments.length; i++) {
+            final String segment = segments[i];
+            final boolean last = i == segments.length - 1;
+            if ("**".equals(segment)) {
+                recursive = true;
+                wildcard = true;
+                if (!last && "**".equals(segments[i + 1])) {
+                    // a/**/** is a/**
+                    continue;
+                }
+                if (!last) {
+                    // any number of directories
+                    sb.append("(?:[^/]+/)*");
+                } else if (sb.length() > 0) {
+                    // as in Ant, a/** also matches a itself
+                    sb.setLength(sb.length() - 1);
+                    sb.append("(?:/.*)?");
+                } else {
+                    sb.append(".*");
+                }
+                continue;
+            }
+            if (!wildcard && !last) {
+                if (segment.indexOf('*') >= 0 || segment.indexOf('?') >= 0) {
+                    wildcard = true;
+                } else {
+                    leading.add(segment);
+                }
+            }
+            sb.append(toRegex(segment));
+            if (!last) {
+                sb.append('/');
+            }
+        }
+        this.regex = Pattern.compile(sb.toString());
+        this.prefix = leading.toArray(new String[leading.size()]);
+        this.maxDepth = recursive ? -1 : segments.length - 1;
+    }
+
+    private static String toRegex(String segment) {
+        final StringBuilder sb = new StringBuilder();
+        final StringBuilder literal = new StringBuilder();
+        for (char c : segment.toCharArray()) {
+            if (c == '*' || c == '?') {
+                if (literal.length() > 0) {
+                    sb.append(Pattern.quote(literal.toString()));
+                    literal.setLength(0);
+                }
+                sb.append(c == '*' ? "[^/]*" : "[^/]");
+            } else {
+                literal.append(c);
+            }
+        }
+        if (literal.length() > 0) {
+            sb.append(Pattern.quote(literal.toString()));
+        }
+        return sb.toString();
+    }
+
+    /**
+     * Compile a comma separated list of patterns, as accepted by
+     * {@link hudson.Util#createFileSet(java.io.File, String, String)}.
+     *
+     * @param patterns comma separated patterns
+     * @return compiled patterns, never <code>null</code>
+     */
+    static List<AntPattern> compile(String patterns) {
+        final List<AntPattern> compiled = new ArrayList<AntPattern>();
+        if (patterns != null) {
+            for (String token : patterns.split(",")) {
+                if (token.trim().length() > 0) {
+                    compiled.add(new AntPattern(token));
+                }
+            }
+        }
+        return compiled;
+    }
+
+    /**
+     * @param path relative path, separated by <code>/</code>
+     * @return whether the path matches this pattern
+     */
+    boolean matches(String path) {
+        return regex.matcher(path).matches();
+    }
+
+    /**
+     * @param directory relative directory path, separated by <code>/</code>
+     *            and empty for the base directory
+     * @return whether files under the directory may match this pattern
+     */
+    boolean mayMatchUnder(String directory) {
+        if (directory.length() == 0) {
+            return true;
+        }
+        final String[] segments = directory.split("/");
+        if (maxDepth >= 0 && segments.length > maxDepth) {
+            return false;
+        }
+        final int common = Math.min(segments.length, prefix.length);
+        for (int i = 0; i < common; i++) {
+            if (!segments[i].equals(prefix[i])) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /*
+     * (non-Javadoc)
+     * 
+     * @see java.lang.Object#toString()
+     */
+    @Override
+    public String toString() {
+        return pattern;
+    }
+
+}
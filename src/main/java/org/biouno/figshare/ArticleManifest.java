@@ -0,0 +1,375 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2015 Bruno P. Kinoshita, BioUno team
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package org.biouno.figshare;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Serializable;
+import java.io.Writer;
+import java.nio.charset.Charset;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import hudson.Util;
+import hudson.model.Job;
+
+/**
+ * <p>
+ * Files a job has published to the figshare article it keeps up to date. The
+ * figshare API client cannot list the files of an article, so the manifest is
+ * the record of what is in the article: a file is uploaded again only when its
+ * size and modification time changed and its SHA-256 digest differs from the
+ * one recorded.
+ * </p>
+ *
+ * <p>
+ * The manifest lives in the job root directory on the master. It is named
+ * after the article ID when one is configured, or after the ant pattern
+ * otherwise, so that several Pipeline steps of a job can each keep an article
+ * up to date. The file starts with the article ID, followed by one line per
+ * file:
+ * </p>
+ *
+ * <pre>
+ * &lt;size&gt; &lt;mtime&gt; &lt;sha256&gt; &lt;fileId&gt; &lt;path&gt;
+ * </pre>
+ *
+ * <p>
+ * The files of the manifest are never held in memory: they are copied to the
+ * node with the files with {@link #copy()}, and the files recorded after a
+ * publication are written to a temporary file, merged with the manifest on
+ * disk by {@link #save()}. Builds of a job may update the same article at the
+ * same time, so the manifest on disk is read again when saving, and kept when
+ * it still describes the same article.
+ * </p>
+ *
+ * @author Bruno P. Kinoshita
+ * @since 0.2
+ */
+final class ArticleManifest {
+
+    private static final Logger LOGGER = Logger.getLogger(ArticleManifest.class.getName());
+
+    /**
+     * Manifest file name prefix, in the job root directory.
+     */
+    static final String FILE_NAME_PREFIX = "figshare-article-";
+
+    /*
+     * Size recorded for a file removed from the manifest.
+     */
+    private static final long REMOVED = -1;
+
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+
+    private final File file;
+    private long articleId = -1;
+    /*
+     * Files recorded by this instance, one line per file, or null if none.
+     */
+    private File updates;
+    private Writer writer;
+
+    private ArticleManifest(File file) {
+        this.file = file;
+    }
+
+    /**
+     * Load the manifest of a job.
+     *
+     * @param job the job
+     * @param articleId the article kept up to date, or 0 or less for the
+     *            article the job created
+     * @param antPattern the ant pattern of the files published
+     * @return the manifest, empty if the job has not published the article yet
+     */
+    static ArticleManifest load(Job<?, ?> job, long articleId, String antPattern) {
+        return load(job.getRootDir(), articleId, antPattern);
+    }
+
+    /**
+     * @param dir the job root directory
+     * @param articleId the article kept up to date, or 0 or less for the
+     *            article the job created
+     * @param antPattern the ant pattern of the files published
+     * @return the manifest in the directory, empty if none
+     */
+    static ArticleManifest load(File dir, long articleId, String antPattern) {
+        final String key = articleId > 0 ? String.valueOf(articleId) : Util.getDigestOf(antPattern);
+        ArticleManifest manifest = new ArticleManifest(new File(dir, FILE_NAME_PREFIX + key + ".txt"));
+        synchronized (JobFiles.lock(manifest.file)) {
+            manifest.articleId = manifest.readArticleId();
+        }
+        if (articleId > 0) {
+            // the files of another article are not copied
+            manifest.articleId = articleId;
+        }
+        return manifest;
+    }
+
+    /**
+     * @return the article of the manifest on disk, or -1 if missing or
+     *         unreadable
+     */
+    private long readArticleId() {
+        if (!file.isFile()) {
+            return -1;
+        }
+        try {
+            BufferedReader reader = new BufferedReader(new InputStreamReader(new FileInputStream(file), UTF8));
+            try {
+                final String line = reader.readLine();
+                return line != null ? Long.parseLong(line.trim()) : -1;
+            } finally {
+                reader.close();
+            }
+        } catch (IOException ioe) {
+            LOGGER.log(Level.WARNING, "Ignoring unreadable figshare manifest " + file, ioe);
+        } catch (NumberFormatException nfe) {
+            LOGGER.log(Level.WARNING, "Ignoring malformed figshare manifest " + file, nfe);
+        }
+        return -1;
+    }
+
+    /**
+     * @return the article kept up to date, or -1 if none was created yet
+     */
+    long getArticleId() {
+        return articleId;
+    }
+
+    /**
+     * Copy the files in the article to a temporary file, to be sent to the
+     * node with the files and indexed there with {@link PathIndex}.
+     *
+     * @return the copy, in the format of the manifest, to be deleted by the
+     *         caller
+     * @throws IOException if the copy cannot be written
+     */
+    File copy() throws IOException {
+        final File copy = File.createTempFile("figshare-article-", ".txt");
+        final OutputStream out = new FileOutputStream(copy);
+        try {
+            synchronized (JobFiles.lock(file)) {
+                if (articleId > 0 && readArticleId() == articleId) {
+                    final InputStream in = new FileInputStream(file);
+                    try {
+                        Util.copyStream(in, out);
+                    } finally {
+                        in.close();
+                    }
+                } else {
+                    out.write((articleId + "\n").getBytes(UTF8));
+                }
+            }
+        } finally {
+            out.close();
+        }
+        return copy;
+    }
+
+    /**
+     * Start recording the content of the article after a publication.
+     *
+     * @param articleId the article
+     * @throws IOException if the files recorded for another article cannot be
+     *             discarded
+     */
+    void update(long articleId) throws IOException {
+        if (this.articleId != articleId) {
+            close();
+        }
+        this.articleId = articleId;
+    }
+
+    /**
+     * Record a file in the article.
+     *
+     * @param path file path
+     * @param entry the file
+     * @throws IOException if the file cannot be recorded
+     */
+    void put(String path, Entry entry) throws IOException {
+        write(PathIndex.format(path, entry));
+    }
+
+    /**
+     * Drop a file from the manifest, once reported as removed from the
+     * workspace, so that it is reported only once.
+     *
+     * @param path file path
+     * @throws IOException if the file cannot be recorded
+     */
+    void remove(String path) throws IOException {
+        write(PathIndex.format(path, new Entry(REMOVED, 0, null, null)));
+    }
+
+    private void write(String line) throws IOException {
+        if (writer == null) {
+            updates = File.createTempFile("figshare-article-updates-", ".txt");
+            writer = new OutputStreamWriter(new FileOutputStream(updates), UTF8);
+            writer.write("updates\n");
+        }
+        writer.write(line);
+        writer.write('\n');
+    }
+
+    /**
+     * Merge the files recorded by this instance into the manifest on disk, or
+     * replace it if it describes another article, and write it.
+     *
+     * @throws IOException if the manifest cannot be written
+     */
+    void save() throws IOException {
+        if (writer != null) {
+            writer.close();
+            writer = null;
+        }
+        final PathIndex recorded = updates != null ? PathIndex.load(updates) : PathIndex.empty();
+        try {
+            synchronized (JobFiles.lock(file)) {
+                File tmp = JobFiles.createTemp(file);
+                Writer out = new OutputStreamWriter(new FileOutputStream(tmp), UTF8);
+                try {
+                    out.write(articleId + "\n");
+                    if (readArticleId() == articleId) {
+                        // the files on disk, unless recorded again
+                        BufferedReader reader = new BufferedReader(new InputStreamReader(new FileInputStream(file),
+                                UTF8));
+                        try {
+                            reader.readLine();
+                            String line;
+                            while ((line = reader.readLine()) != null) {
+                                final String[] entry = line.split(" ", 5);
+                                if (entry.length == 5 && recorded.indexOf(entry[4]) < 0) {
+                                    out.write(line);
+                                    out.write('\n');
+                                }
+                            }
+                        } finally {
+                            reader.close();
+                        }
+                    }
+                    for (int i = 0; i < recorded.size(); i++) {
+                        if (recorded.isLast(i)) {
+                            final Entry entry = recorded.getEntry(i);
+                            if (entry.size != REMOVED) {
+                                out.write(PathIndex.format(recorded.getPath(i), entry));
+                                out.write('\n');
+                            }
+                        }
+                    }
+                } finally {
+                    out.close();
+                }
+                JobFiles.replace(tmp, file);
+            }
+        } finally {
+            recorded.close();
+        }
+        close();
+    }
+
+    /**
+     * Discard the files recorded and not saved.
+     *
+     * @throws IOException if the temporary file cannot be closed
+     */
+    void close() throws IOException {
+        try {
+            if (writer != null) {
+                writer.close();
+            }
+        } finally {
+            writer = null;
+            if (updates != null && !updates.delete()) {
+                LOGGER.fine("Could not delete " + updates);
+            }
+            updates = null;
+        }
+    }
+
+    /**
+     * A file in the article.
+     */
+    static final class Entry implements Serializable {
+
+        /*
+         * Serial UID.
+         */
+        private static final long serialVersionUID = 4100672939787183745L;
+
+        private final long size;
+        private final long lastModified;
+        private final String digest;
+        private final String fileId;
+
+        /**
+         * @param size file size, in bytes
+         * @param lastModified file modification time
+         * @param digest SHA-256 digest of the file, or <code>null</code> if
+         *            unknown
+         * @param fileId figshare file ID, or <code>null</code> if unknown
+         */
+        Entry(long size, long lastModified, String digest, String fileId) {
+            this.size = size;
+            this.lastModified = lastModified;
+            this.digest = digest;
+            this.fileId = fileId;
+        }
+
+        /**
+         * @param f a local file
+         * @return whether the file has the size and modification time recorded
+         */
+        boolean isSameAs(File f) {
+            return size == f.length() && lastModified == f.lastModified();
+        }
+
+        long getSize() {
+            return size;
+        }
+
+        long getLastModified() {
+            return lastModified;
+        }
+
+        String getDigest() {
+            return digest;
+        }
+
+        String getFileId() {
+            return fileId;
+        }
+
+    }
+
+}
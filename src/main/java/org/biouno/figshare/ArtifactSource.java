@@ -0,0 +1,77 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2015 Bruno P. Kinoshita, BioUno team
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package org.biouno.figshare;
+
+import java.io.File;
+import java.io.IOException;
+import java.net.URI;
+
+import hudson.AbortException;
+import hudson.FilePath;
+import hudson.model.Run;
+import jenkins.util.VirtualFile;
+
+/**
+ * <p>
+ * Files archived by a build, to be published instead of its workspace.
+ * </p>
+ *
+ * <p>
+ * The artifacts are read where the artifact manager of the build keeps them,
+ * so that publishing needs neither the workspace nor the agent that ran the
+ * build, and no copy of the files is made. The figshare API uploads local
+ * files only, so artifacts kept outside the file system of the master, like
+ * in a blob store, cannot be published this way.
+ * </p>
+ *
+ * @author Bruno P. Kinoshita
+ * @since 0.2
+ */
+final class ArtifactSource {
+
+    private ArtifactSource() {
+    }
+
+    /**
+     * @param run the build
+     * @return directory with the artifacts of the build, in the master, or
+     *         <code>null</code> if the build archived no artifacts
+     * @throws IOException if the artifacts are not kept in the file system of
+     *             the master
+     */
+    static FilePath root(Run<?, ?> run) throws IOException {
+        final VirtualFile root = run.getArtifactManager().root();
+        if (!root.exists()) {
+            return null;
+        }
+        final URI uri = root.toURI();
+        if (!"file".equals(uri.getScheme())) {
+            throw new AbortException(String.format("The artifacts of %s are stored in %s, not in the master. "
+                    + "Only artifacts in the file system of the master can be published to figshare.",
+                    run.getFullDisplayName(), uri.getScheme()));
+        }
+        return new FilePath(new File(uri));
+    }
+
+}
@@ -0,0 +1,194 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2015 Bruno P. Kinoshita, BioUno team
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package org.biouno.figshare;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import hudson.util.DaemonThreadFactory;
+import hudson.util.NamingThreadFactory;
+
+/**
+ * <p>
+ * Job output that collects the lines printed on the node and sends them to
+ * the build log in batches, instead of one remote call per line.
+ * </p>
+ *
+ * <p>
+ * A batch is sent once it reaches {@link #MAX_BATCH_SIZE} bytes, or when its
+ * oldest line has waited for {@link #MAX_BATCH_DELAY} milliseconds, so that
+ * the build log stays close to real time. Closing this stream sends the last
+ * batch, but does not close the build log.
+ * </p>
+ *
+ * @author Bruno P. Kinoshita
+ * @since 0.2
+ */
+final class BatchingPrintStream extends PrintStream {
+
+    private static final Logger LOGGER = Logger.getLogger(BatchingPrintStream.class.getName());
+
+    /**
+     * Maximum size of a batch, in bytes.
+     */
+    static final int MAX_BATCH_SIZE = Integer.getInteger(BatchingPrintStream.class.getName() + ".maxBatchSize",
+            16 * 1024);
+
+    /**
+     * Maximum time a line waits before being sent, in milliseconds.
+     */
+    static final long MAX_BATCH_DELAY = Long.getLong(BatchingPrintStream.class.getName() + ".maxBatchDelay", 2000L);
+
+    private final Batch batch;
+    private final ScheduledExecutorService timer;
+
+    /**
+     * @param log build log, usually a remote stream
+     */
+    BatchingPrintStream(PrintStream log) {
+        this(new Batch(log));
+    }
+
+    private BatchingPrintStream(Batch batch) {
+        super(batch, false);
+        this.batch = batch;
+        this.timer = Executors.newSingleThreadScheduledExecutor(new NamingThreadFactory(new DaemonThreadFactory(),
+                "figshare-log"));
+        this.timer.scheduleWithFixedDelay(new Runnable() {
+            @Override
+            public void run() {
+                sendIfDue();
+            }
+        }, MAX_BATCH_DELAY, MAX_BATCH_DELAY / 2, TimeUnit.MILLISECONDS);
+    }
+
+    private void sendIfDue() {
+        try {
+            batch.sendIfDue();
+        } catch (IOException ioe) {
+            LOGGER.log(Level.FINE, "Error sending job output", ioe);
+        }
+    }
+
+    /**
+     * @return number of batches sent so far
+     */
+    long getBatches() {
+        return batch.batches;
+    }
+
+    /**
+     * @return number of bytes sent so far
+     */
+    long getBytes() {
+        return batch.bytes;
+    }
+
+    /**
+     * Send the lines waiting, and stop the timer. The build log is left open.
+     */
+    @Override
+    public void close() {
+        timer.shutdownNow();
+        // closes the batch, which sends the last lines
+        super.close();
+    }
+
+    /**
+     * Lines waiting to be sent.
+     */
+    private static final class Batch extends OutputStream {
+
+        private final PrintStream log;
+        private final ByteArrayOutputStream buffer = new ByteArrayOutputStream(MAX_BATCH_SIZE);
+        private long oldest = -1;
+        private volatile long batches;
+        private volatile long bytes;
+
+        Batch(PrintStream log) {
+            this.log = log;
+        }
+
+        @Override
+        public synchronized void write(int b) throws IOException {
+            mark();
+            buffer.write(b);
+            if (buffer.size() >= MAX_BATCH_SIZE) {
+                send();
+            }
+        }
+
+        @Override
+        public synchronized void write(byte[] b, int off, int len) throws IOException {
+            mark();
+            buffer.write(b, off, len);
+            if (buffer.size() >= MAX_BATCH_SIZE) {
+                send();
+            }
+        }
+
+        @Override
+        public void flush() throws IOException {
+            // sent by size, by time or when closed, never line by line
+        }
+
+        @Override
+        public synchronized void close() throws IOException {
+            send();
+        }
+
+        synchronized void sendIfDue() throws IOException {
+            if (oldest >= 0 && System.currentTimeMillis() - oldest >= MAX_BATCH_DELAY) {
+                send();
+            }
+        }
+
+        private void mark() {
+            if (oldest < 0) {
+                oldest = System.currentTimeMillis();
+            }
+        }
+
+        private void send() throws IOException {
+            if (buffer.size() == 0) {
+                return;
+            }
+            // a single remote call per batch
+            buffer.writeTo(log);
+            log.flush();
+            batches++;
+            bytes += buffer.size();
+            buffer.reset();
+            oldest = -1;
+        }
+    }
+
+}
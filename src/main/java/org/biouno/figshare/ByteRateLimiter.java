@@ -0,0 +1,81 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2015 Bruno P. Kinoshita, BioUno team
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package org.biouno.figshare;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * <p>
+ * Paces the uploads of a publication so that, on average, they do not send
+ * more than a number of bytes per second.
+ * </p>
+ *
+ * <p>
+ * The figshare client reads and sends each file itself, in one request, so the
+ * rate is enforced per file: a file may start once the previous files would
+ * have been sent at the allowed rate. The rate is therefore an average over
+ * consecutive files; a single file is sent as fast as the network allows, and
+ * delays the files after it by the time it should have taken.
+ * </p>
+ *
+ * @author Bruno P. Kinoshita
+ * @since 0.2
+ */
+final class ByteRateLimiter {
+
+    private final long bytesPerSecond;
+    private long next = System.nanoTime();
+
+    /**
+     * @param bytesPerSecond maximum average rate, or 0 or less for no limit
+     */
+    ByteRateLimiter(long bytesPerSecond) {
+        this.bytesPerSecond = bytesPerSecond;
+    }
+
+    /**
+     * Wait until a file can be sent.
+     *
+     * @param bytes size of the file
+     * @return milliseconds waited
+     * @throws InterruptedException if interrupted
+     */
+    long acquire(long bytes) throws InterruptedException {
+        if (bytesPerSecond <= 0) {
+            return 0;
+        }
+        final long wait;
+        synchronized (this) {
+            final long now = System.nanoTime();
+            final long start = Math.max(now, next);
+            next = start + (long) (bytes * (double) TimeUnit.SECONDS.toNanos(1) / bytesPerSecond);
+            wait = start - now;
+        }
+        if (wait > 0) {
+            TimeUnit.NANOSECONDS.sleep(wait);
+        }
+        return TimeUnit.NANOSECONDS.toMillis(Math.max(0, wait));
+    }
+
+}
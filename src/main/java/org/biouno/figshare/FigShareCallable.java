@@ -0,0 +1,559 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2015 Bruno P. Kinoshita, BioUno team
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package org.biouno.figshare;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import org.biouno.figshare.credentials.FigShareOauthCredentials;
+import org.biouno.figshare.v1.model.Article;
+import org.jenkinsci.remoting.RoleChecker;
+
+import hudson.FilePath;
+import hudson.FilePath.FileCallable;
+import hudson.Util;
+import hudson.remoting.VirtualChannel;
+import jenkins.security.Roles;
+
+/**
+ * {#link FileCallable} used to execute upload in the slave with the files.
+ * 
+ * @author Bruno P. Kinoshita
+ * @since 0.1
+ */
+final class FigShareCallable implements FileCallable<PublishResult> {
+
+    private static final Logger LOGGER = Logger.getLogger(FigShareCallable.class.getName());
+
+    private static final String FIGSHARE_ARTICLE_DEFAULT_TYPE = "dataset";
+
+    /*
+     * Serial UID.
+     */
+    private static final long serialVersionUID = 5511693287716237552L;
+
+    private final String endpoint;
+    private final int apiVersion;
+    private final String includes;
+    private final String title;
+    private final String description;
+
+    /*
+     * From build listener.
+     */
+    private final PrintStream ps;
+    private final String credentialsId;
+    private final FigShareOauthCredentials credential;
+    private final UploadOptions options;
+    private final Map<String, String> knownDigests;
+    private final long articleId;
+    private final FilePath articleFiles;
+    private String checkpointDirectory;
+    private String shard;
+    private int partition;
+    private int partitions;
+    private transient FileUploader.Destination destination;
+
+    /**
+     * Internal only constructor.
+     *
+     * @param endpoint figshare API endpoint
+     * @param apiVersion figshare API version
+     * @param includes ant include pattern
+     * @param title article title
+     * @param description article description
+     * @param credentialsId credential ID
+     * @param credential credential
+     * @param options upload options
+     * @param knownDigests digests of content already published by the job,
+     *            to be skipped, or <code>null</code> to upload every file
+     * @param articleId article to update, or -1 to create a new article
+     * @param articleFiles copy of the {@link ArticleManifest} of the article
+     *            to update, read where the files are, or <code>null</code> to
+     *            upload every file to a new article
+     * @param ps job output
+     */
+    FigShareCallable(String endpoint, int apiVersion, String includes, String title, String description,
+            String credentialsId, FigShareOauthCredentials credential, UploadOptions options,
+            Map<String, String> knownDigests, long articleId, FilePath articleFiles, PrintStream ps) {
+        this.endpoint = endpoint;
+        this.apiVersion = apiVersion;
+        this.includes = includes;
+        this.title = title;
+        this.description = description;
+        this.credentialsId = credentialsId;
+        this.credential = credential;
+        this.options = options;
+        this.knownDigests = knownDigests;
+        this.articleId = articleId;
+        this.articleFiles = articleFiles;
+        this.ps = ps;
+    }
+
+    /**
+     * @param checkpointDirectory directory for the upload checkpoint, when
+     *            the files must not be written to, like archived artifacts
+     * @return this callable
+     */
+    FigShareCallable withCheckpointDirectory(String checkpointDirectory) {
+        this.checkpointDirectory = checkpointDirectory;
+        return this;
+    }
+
+    /**
+     * @param destination receives the uploaded files instead of figshare, in
+     *            tests and benchmarks invoking this callable in the same JVM
+     * @return this callable
+     */
+    FigShareCallable to(FileUploader.Destination destination) {
+        this.destination = destination;
+        return this;
+    }
+
+    /**
+     * @param articleId article already created for the shards
+     * @param shard name of the shard, the node it is uploaded from
+     * @param partition the files of the shard, whose
+     *            {@link ShardedPublication#partition(String, int)} is this one
+     * @param partitions number of partitions of the files
+     * @param shards number of shards, sharing the upload rate limit
+     * @return a callable uploading the files of the shard only
+     */
+    FigShareCallable forShard(long articleId, String shard, int partition, int partitions, int shards) {
+        final long maxBytesPerSecond = options.getMaxBytesPerSecond() > 0
+                ? Math.max(1, options.getMaxBytesPerSecond() / shards) : options.getMaxBytesPerSecond();
+        final FigShareCallable callable = new FigShareCallable(endpoint, apiVersion, includes, title, description,
+                credentialsId, credential, options.withMaxBytesPerSecond(maxBytesPerSecond), knownDigests,
+                articleId, null, ps);
+        callable.shard = shard;
+        callable.partition = partition;
+        callable.partitions = partitions;
+        return callable;
+    }
+
+    /**
+     * @return the ant include pattern
+     */
+    String getIncludes() {
+        return includes;
+    }
+
+    /**
+     * Create the article, in the master, when its files are uploaded in shards.
+     *
+     * @param log job output
+     * @param statistics statistics updated with the article creation time
+     * @return the figshare article ID
+     * @throws IOException if the article cannot be created
+     * @throws InterruptedException if interrupted
+     */
+    long createArticle(PrintStream log, UploadStatistics statistics) throws IOException, InterruptedException {
+        final FigShareClient figshare = FigShareClients.get(endpoint, apiVersion, credentialsId, credential);
+        if (LOGGER.isLoggable(Level.FINE)) {
+            LOGGER.log(Level.FINE, String.format("Creating article %s, description: %s", title, description));
+        }
+        final long start = System.currentTimeMillis();
+        Article article = RequestScheduler.get().call("Article creation", new Callable<Article>() {
+            @Override
+            public Article call() throws Exception {
+                return figshare.createArticle(title, description, FIGSHARE_ARTICLE_DEFAULT_TYPE);
+            }
+        }, log, statistics);
+        statistics.articleCreated(System.currentTimeMillis() - start);
+        log.println(String.format("Article %d created!", article.getArticleId()));
+        return article.getArticleId();
+    }
+
+    /*
+     * (non-Javadoc)
+     * 
+     * @see org.jenkinsci.remoting.RoleSensitive#checkRoles(org.jenkinsci.
+     * remoting.RoleChecker)
+     */
+    @Override
+    public void checkRoles(RoleChecker checker) throws SecurityException {
+        // OK to execute it anywhere
+        checker.check(this, Arrays.asList(Roles.MASTER, Roles.SLAVE));
+    }
+
+    /*
+     * (non-Javadoc)
+     * 
+     * @see hudson.FilePath.FileCallable#invoke(java.io.File,
+     * hudson.remoting.VirtualChannel)
+     */
+    @Override
+    public PublishResult invoke(File f, VirtualChannel channel) throws IOException, InterruptedException {
+        // articles of another endpoint cannot be resumed
+        // shards are uploaded to a new article every time, their checkpoint need
+        // not be shared with the other nodes
+        final File dir = shard != null ? new File(System.getProperty("java.io.tmpdir"))
+                : checkpointDirectory != null ? new File(checkpointDirectory) : f;
+        final UploadCheckpoint checkpoint = new UploadCheckpoint(dir,
+                Util.getDigestOf(endpoint + '\n' + title + '\n' + description + '\n' + includes
+                        + (shard != null ? '\n' + shard : "")));
+        final UploadStatistics statistics = new UploadStatistics();
+        final BatchingPrintStream log = new BatchingPrintStream(ps);
+        final PathIndex index = articleFiles != null ? load(articleFiles) : null;
+        final Publication publication = new Publication(checkpoint, statistics, log, index);
+        // whether the records are sent back, even when the publication failed
+        boolean recorded = false;
+        try {
+            // files are uploaded while the workspace is still being scanned, unless
+            // they are planned to be uploaded in parallel, largest first
+            final long start = System.currentTimeMillis();
+            find(f, publication);
+            statistics.scanned(System.currentTimeMillis() - start);
+            if (publication.uploader == null) {
+                log.println(String.format("No files found for pattern %s. Skip creating an empty figshare article.",
+                        includes));
+                return null;
+            }
+            publication.finish(f);
+            publication.uploader.awaitCompletion();
+            publication.reportRemoved();
+            log.println(String.format(
+                    "Uploaded %d file(s), %d bytes at %d bytes/s. Latency p50 %d ms, p99 %d ms. %d retries.",
+                    statistics.getFiles(), statistics.getBytes(), statistics.getBytesPerSecond(),
+                    statistics.getP50Millis(), statistics.getP99Millis(), statistics.getRetries()));
+            if (statistics.getHashedFiles() > 0) {
+                log.println(String.format("Hashed %d file(s) in %d ms at %d bytes/s. Latency p50 %d ms, p99 %d ms.",
+                        statistics.getHashedFiles(), statistics.getHashMillis(), statistics.getHashBytesPerSecond(),
+                        statistics.getHashP50Millis(), statistics.getHashP99Millis()));
+            }
+            publication.result.close();
+            recorded = true;
+        } catch (IOException ioe) {
+            if (publication.result == null) {
+                throw ioe;
+            }
+            recorded = true;
+            throw publication.result.incomplete(ioe);
+        } catch (RuntimeException re) {
+            if (publication.result == null) {
+                throw re;
+            }
+            recorded = true;
+            throw publication.result.incomplete(re);
+        } finally {
+            publication.close();
+            checkpoint.close();
+            if (index != null) {
+                index.delete();
+            }
+            if (!recorded && publication.result != null) {
+                publication.result.discard();
+            }
+            log.close();
+            statistics.logged(log.getBatches(), log.getBytes());
+        }
+        // every file is in figshare, the next build starts a new article
+        checkpoint.delete();
+        return publication.result;
+    }
+
+    /**
+     * Copy the manifest of the article to update to a local file, and index
+     * it, rather than reading it in memory.
+     *
+     * @param manifest copy of the manifest, in the master
+     * @return the index of the local copy
+     * @throws IOException if the manifest cannot be copied
+     * @throws InterruptedException if interrupted
+     */
+    private static PathIndex load(FilePath manifest) throws IOException, InterruptedException {
+        final File local = File.createTempFile("figshare-article-", ".txt");
+        try {
+            final OutputStream out = new FileOutputStream(local);
+            try {
+                manifest.copyTo(out);
+            } finally {
+                out.close();
+            }
+            return PathIndex.load(local);
+        } catch (IOException ioe) {
+            if (!local.delete()) {
+                LOGGER.fine("Could not delete " + local);
+            }
+            throw ioe;
+        }
+    }
+
+    /**
+     * Find the files to publish: the files matching the pattern, in the
+     * partition of the shard if any.
+     *
+     * @param base directory with the files
+     * @param handler receives the files
+     * @throws IOException if the files cannot be handled
+     * @throws InterruptedException if interrupted
+     */
+    private void find(File base, final FileFinder.Handler handler) throws IOException, InterruptedException {
+        if (shard == null) {
+            new FileFinder(includes).scan(base, handler);
+            return;
+        }
+        // a file this node cannot see is reported missing by the master
+        new FileFinder(includes).scan(base, new FileFinder.Handler() {
+            @Override
+            public void found(String path, File file) throws IOException, InterruptedException {
+                if (ShardedPublication.partition(path, partitions) == partition) {
+                    handler.found(path, file);
+                }
+            }
+        });
+    }
+
+    /**
+     * Receives the files found in the workspace, creating the article when the
+     * first file is found, so that no empty article is created.
+     */
+    private final class Publication implements FileFinder.Handler, UploadPlan.Queue {
+
+        private final UploadCheckpoint checkpoint;
+        private final UploadStatistics statistics;
+        private final PrintStream log;
+        /*
+         * Files of the article kept up to date, and the lines of those found.
+         */
+        private final PathIndex articleFiles;
+        private final BitSet found = new BitSet();
+        private int unchanged;
+        private long articleId = -1;
+        private PublishResult result;
+        private FileUploader uploader;
+        private FileBundler bundler;
+        private UploadPlan plan;
+
+        Publication(UploadCheckpoint checkpoint, UploadStatistics statistics, PrintStream log,
+                PathIndex articleFiles) {
+            this.checkpoint = checkpoint;
+            this.statistics = statistics;
+            this.log = log;
+            this.articleFiles = articleFiles;
+        }
+
+        @Override
+        public void found(String path, File file) throws IOException, InterruptedException {
+            if (UploadCheckpoint.isCheckpoint(path)) {
+                return;
+            }
+            if (uploader == null) {
+                open();
+            }
+            if (isPending(path, file, true)) {
+                final ArticleManifest.Entry previous = articleFiles != null ? articleFiles.get(path) : null;
+                if (plan != null) {
+                    plan.add(path, file, previous);
+                } else {
+                    queue(path, file, previous);
+                }
+            }
+        }
+
+        /**
+         * @param path file path, relative to the workspace
+         * @param file the file
+         * @param record whether to record the files that are not uploaded,
+         *            the first time they are found
+         * @return whether the file has to be uploaded: it is not in the
+         *         checkpoint, nor unchanged in the article kept up to date
+         */
+        private boolean isPending(String path, File file, boolean record) throws IOException {
+            if (articleFiles != null) {
+                final int i = articleFiles.indexOf(path);
+                final ArticleManifest.Entry previous = i >= 0 ? articleFiles.getEntry(i) : null;
+                if (record && i >= 0) {
+                    found.set(i);
+                }
+                if (previous != null && previous.isSameAs(file)) {
+                    if (record) {
+                        result.addManifestEntry(path, previous);
+                        result.addCompleted(path);
+                        unchanged++;
+                    }
+                    return false;
+                }
+            }
+            final ArticleManifest.Entry completed = checkpoint.getCompleted(path, file);
+            if (completed != null) {
+                if (record) {
+                    log.println(String.format("File %s already uploaded to article %d", path, articleId));
+                    if (articleFiles != null) {
+                        result.addManifestEntry(path, completed);
+                    }
+                    if (knownDigests != null && completed.getDigest() != null && completed.getFileId() != null) {
+                        result.addDigest(completed.getDigest(), articleId + "/" + completed.getFileId());
+                    }
+                    result.addCompleted(path);
+                }
+                return false;
+            }
+            return true;
+        }
+
+        /*
+         * (non-Javadoc)
+         * 
+         * @see org.biouno.figshare.UploadPlan.Queue#queue(java.lang.String,
+         * java.io.File, org.biouno.figshare.ArticleManifest.Entry)
+         */
+        @Override
+        public void queue(String path, File file, ArticleManifest.Entry previous)
+                throws IOException, InterruptedException {
+            if (articleFiles != null) {
+                uploader.update(path, file, previous);
+            } else if (bundler != null) {
+                bundler.add(path, file);
+            } else {
+                uploader.submit(path, file);
+            }
+        }
+
+        /**
+         * Report the files of the article kept up to date that are no longer
+         * in the workspace. The figshare API client cannot delete files, so
+         * they stay in the article, but are dropped from its manifest, so that
+         * each is reported once.
+         *
+         * @throws IOException if the result cannot be written
+         */
+        void reportRemoved() throws IOException {
+            if (articleFiles == null) {
+                return;
+            }
+            for (int i = found.nextClearBit(0); i < articleFiles.size(); i = found.nextClearBit(i + 1)) {
+                if (articleFiles.isLast(i)) {
+                    final String path = articleFiles.getPath(i);
+                    log.println(String.format("File %s was removed, delete figshare file %s from article %d if "
+                            + "no longer needed", path, articleFiles.getEntry(i).getFileId(), articleId));
+                    // reported once, then no longer in the manifest
+                    result.addRemoved(path);
+                }
+            }
+            log.println(String.format("%d file(s) unchanged in article %d", unchanged, articleId));
+        }
+
+        /**
+         * Upload the files of the plan, or the last bundle, once every file was
+         * found.
+         *
+         * @param base directory scanned
+         * @throws IOException if the bundle cannot be written
+         * @throws InterruptedException if interrupted
+         */
+        void finish(File base) throws IOException, InterruptedException {
+            if (bundler != null) {
+                bundler.flush();
+            }
+            if (plan != null) {
+                plan.submit(this, options.getUploadThreads(), options.getMeasuredBytesPerSecond(), log);
+                if (plan.isPartial()) {
+                    // the smaller files, found again rather than kept in memory
+                    find(base, new FileFinder.Handler() {
+                        @Override
+                        public void found(String path, File file) throws IOException, InterruptedException {
+                            if (!UploadCheckpoint.isCheckpoint(path) && !plan.contains(path)
+                                    && isPending(path, file, false)) {
+                                queue(path, file, articleFiles != null ? articleFiles.get(path) : null);
+                            }
+                        }
+                    });
+                }
+            }
+        }
+
+        /**
+         * Stop uploading, and remove temporary files.
+         */
+        void close() {
+            if (uploader != null) {
+                uploader.close();
+            }
+            if (bundler != null) {
+                bundler.close();
+            }
+        }
+
+        private void open() throws IOException, InterruptedException {
+            if (LOGGER.isLoggable(Level.FINE)) {
+                LOGGER.log(Level.FINE, String.format("Initialising the figshare API %s, version %d", endpoint,
+                        apiVersion));
+            }
+            articleId = checkpoint.getArticleId();
+            if (FigShareCallable.this.articleId > 0) {
+                if (articleId == FigShareCallable.this.articleId) {
+                    checkpoint.resume();
+                } else {
+                    articleId = FigShareCallable.this.articleId;
+                    checkpoint.start(articleId);
+                }
+                if (articleFiles != null) {
+                    log.println(String.format("Updating article %d, %d file(s) already published", articleId,
+                            articleFiles.size()));
+                } else {
+                    log.println(String.format("Uploading the files of %s to article %d", shard, articleId));
+                }
+            } else if (articleId < 0) {
+                articleId = createArticle(log, statistics);
+                checkpoint.start(articleId);
+            } else {
+                checkpoint.resume();
+                log.println(String.format("Resuming previous upload to article %d", articleId));
+            }
+            if (LOGGER.isLoggable(Level.FINE)) {
+                LOGGER.log(Level.FINE, String.format("Uploading files using up to %d concurrent uploads...",
+                        options.getUploadThreads()));
+            }
+            result = new PublishResult(articleId, statistics);
+            final FileUploader.Destination to = destination != null ? destination
+                    : FileUploader.to(FigShareClients.get(endpoint, apiVersion, credentialsId, credential));
+            uploader = new FileUploader(to, articleId, options, checkpoint, knownDigests, result, log);
+            if (options.isBundling() && articleFiles != null) {
+                log.println("Files are not bundled when updating an article, so that each is compared on its own");
+            } else if (options.isBundling()) {
+                if (knownDigests != null) {
+                    log.println("Files in bundles are not hashed, so only files larger than the bundle size are "
+                            + "skipped when unchanged");
+                }
+                bundler = new FileBundler(uploader, options);
+            }
+            if (bundler == null && options.getUploadThreads() > 1) {
+                // parallel uploads start once every file is found, largest first
+                plan = new UploadPlan();
+            }
+        }
+
+    }
+
+}
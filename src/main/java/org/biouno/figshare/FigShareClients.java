@@ -0,0 +1,142 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2015 Bruno P. Kinoshita, BioUno team
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package org.biouno.figshare;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import org.biouno.figshare.credentials.FigShareOauthCredentials;
+
+import hudson.Util;
+
+/**
+ * <p>
+ * Registry of {@link FigShareClient}s in this JVM, so that builds running on
+ * the same node re-use the clients, and the HTTP connections they keep alive,
+ * instead of creating a new client for every build.
+ * </p>
+ *
+ * <p>
+ * Clients are keyed by endpoint, credential ID and a digest of the secrets,
+ * so a rotated secret gets a new client. At most {@link #MAX_CLIENTS} clients
+ * are kept, and clients not used for {@link #IDLE_TIMEOUT} milliseconds are
+ * discarded.
+ * </p>
+ *
+ * @author Bruno P. Kinoshita
+ * @since 0.2
+ */
+final class FigShareClients {
+
+    private static final Logger LOGGER = Logger.getLogger(FigShareClients.class.getName());
+
+    /**
+     * Maximum number of clients kept.
+     */
+    static final int MAX_CLIENTS = Integer.getInteger(FigShareClients.class.getName() + ".maxClients", 16);
+
+    /**
+     * Milliseconds after which an unused client is discarded.
+     */
+    static final long IDLE_TIMEOUT = Long.getLong(FigShareClients.class.getName() + ".idleTimeout",
+            TimeUnit.MINUTES.toMillis(10));
+
+    private static final Map<String, Entry> CLIENTS = new LinkedHashMap<String, Entry>(16, 0.75f, true);
+
+    private static long hits;
+    private static long misses;
+    private static long evictions;
+
+    private FigShareClients() {
+    }
+
+    /**
+     * Get a client, creating it if needed.
+     *
+     * @param endpoint figshare API endpoint
+     * @param version figshare API version
+     * @param credentialsId credential ID
+     * @param credential credential
+     * @return a figshare client
+     */
+    static synchronized FigShareClient get(String endpoint, int version, String credentialsId,
+            FigShareOauthCredentials credential) {
+        final long now = System.currentTimeMillis();
+        evictIdle(now);
+        final String clientSecret = credential.getClientSecret().getPlainText();
+        final String tokenSecret = credential.getTokenSecret().getPlainText();
+        final String key = endpoint + '\n' + version + '\n' + credentialsId + '\n' + Util.getDigestOf(
+                credential.getClientKey() + '\n' + clientSecret + '\n' + credential.getTokenKey() + '\n' + tokenSecret);
+        Entry entry = CLIENTS.get(key);
+        if (entry == null) {
+            misses++;
+            entry = new Entry(FigShareClient.to(endpoint, version, credential.getClientKey(), clientSecret,
+                    credential.getTokenKey(), tokenSecret));
+            CLIENTS.put(key, entry);
+            final Iterator<Entry> it = CLIENTS.values().iterator();
+            while (CLIENTS.size() > MAX_CLIENTS && it.hasNext()) {
+                it.next();
+                it.remove();
+                evictions++;
+            }
+        } else {
+            hits++;
+        }
+        entry.lastUsed = now;
+        if (LOGGER.isLoggable(Level.FINE)) {
+            LOGGER.log(Level.FINE, String.format("figshare clients: %d cached, %d hits, %d misses, %d evictions",
+                    CLIENTS.size(), hits, misses, evictions));
+        }
+        return entry.client;
+    }
+
+    private static void evictIdle(long now) {
+        final Iterator<Entry> it = CLIENTS.values().iterator();
+        while (it.hasNext()) {
+            // least recently used first
+            if (now - it.next().lastUsed <= IDLE_TIMEOUT) {
+                break;
+            }
+            it.remove();
+            evictions++;
+        }
+    }
+
+    /**
+     * A client and the last time it was handed out.
+     */
+    private static final class Entry {
+        private final FigShareClient client;
+        private long lastUsed;
+
+        Entry(FigShareClient client) {
+            this.client = client;
+        }
+    }
+
+}
@@ -0,0 +1,134 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2015 Bruno P. Kinoshita, BioUno team
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package org.biouno.figshare;
+
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.util.Map;
+import java.util.TreeMap;
+
+import org.kohsuke.stapler.StaplerRequest;
+import org.kohsuke.stapler.StaplerResponse;
+
+import hudson.Extension;
+import hudson.model.RootAction;
+import jenkins.model.Jenkins;
+
+/**
+ * <p>
+ * Upload totals per node, since Jenkins started, exported in the Prometheus
+ * text format at <code>JENKINS_URL/figshare-metrics/</code> for a local
+ * metrics collector.
+ * </p>
+ *
+ * @author Bruno P. Kinoshita
+ * @since 0.2
+ */
+@Extension
+public class FigShareMetrics implements RootAction {
+
+    private static final Map<String, long[]> TOTALS = new TreeMap<String, long[]>();
+
+    private static final String[] NAMES = { "figshare_publications_total", "figshare_files_uploaded_total",
+            "figshare_bytes_uploaded_total", "figshare_upload_milliseconds_total", "figshare_retries_total",
+            "figshare_hash_milliseconds_total" };
+
+    /**
+     * Add the statistics of a publication to the totals of a node.
+     *
+     * @param node node name, empty for the master
+     * @param statistics publication statistics
+     */
+    static void record(String node, UploadStatistics statistics) {
+        synchronized (TOTALS) {
+            long[] totals = TOTALS.get(node);
+            if (totals == null) {
+                totals = new long[NAMES.length];
+                TOTALS.put(node, totals);
+            }
+            totals[0]++;
+            totals[1] += statistics.getFiles();
+            totals[2] += statistics.getBytes();
+            totals[3] += statistics.getUploadMillis();
+            totals[4] += statistics.getRetries();
+            totals[5] += statistics.getHashMillis();
+        }
+    }
+
+    /**
+     * Write the totals.
+     *
+     * @param req request
+     * @param rsp response
+     * @throws IOException if the response cannot be written
+     */
+    public void doIndex(StaplerRequest req, StaplerResponse rsp) throws IOException {
+        Jenkins.getInstance().checkPermission(Jenkins.READ);
+        rsp.setContentType("text/plain; version=0.0.4; charset=UTF-8");
+        final PrintWriter w = rsp.getWriter();
+        synchronized (TOTALS) {
+            for (int i = 0; i < NAMES.length; i++) {
+                w.println("# TYPE " + NAMES[i] + " counter");
+                for (Map.Entry<String, long[]> entry : TOTALS.entrySet()) {
+                    final String node = entry.getKey().length() > 0 ? entry.getKey() : "master";
+                    w.println(String.format("%s{node=\"%s\"} %d", NAMES[i], node.replace("\"", "\\\""),
+                            entry.getValue()[i]));
+                }
+            }
+        }
+        w.flush();
+    }
+
+    /*
+     * (non-Javadoc)
+     * 
+     * @see hudson.model.Action#getIconFileName()
+     */
+    @Override
+    public String getIconFileName() {
+        // not shown in the side panel
+        return null;
+    }
+
+    /*
+     * (non-Javadoc)
+     * 
+     * @see hudson.model.ModelObject#getDisplayName()
+     */
+    @Override
+    public String getDisplayName() {
+        return "figshare metrics";
+    }
+
+    /*
+     * (non-Javadoc)
+     * 
+     * @see hudson.model.Action#getUrlName()
+     */
+    @Override
+    public String getUrlName() {
+        return "figshare-metrics";
+    }
+
+}
@@ -25,23 +25,23 @@ package org.biouno.figshare;
 
 import java.io.File;
 import java.io.IOException;
-import java.io.PrintStream;
+import java.net.MalformedURLException;
+import java.net.URL;
 import java.util.ArrayList;
-import java.util.Arrays;
-import java.util.Collections;
 import java.util.List;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
-import org.apache.tools.ant.DirectoryScanner;
-import org.apache.tools.ant.Project;
-import org.apache.tools.ant.types.FileSet;
+import org.biouno.figshare.FigSharePublishAction.Status;
+import org.biouno.figshare.credentials.CredentialsCache;
 import org.biouno.figshare.credentials.FigShareOauthCredentials;
-import org.biouno.figshare.v1.model.Article;
-import org.jenkinsci.remoting.RoleChecker;
 import org.kohsuke.stapler.AncestorInPath;
 import org.kohsuke.stapler.DataBoundConstructor;
+import org.kohsuke.stapler.DataBoundSetter;
 import org.kohsuke.stapler.QueryParameter;
+import org.kohsuke.stapler.StaplerRequest;
+
+import antlr.ANTLRException;
 
 import com.cloudbees.plugins.credentials.CredentialsMatchers;
 import com.cloudbees.plugins.credentials.CredentialsProvider;
@@ -49,25 +49,25 @@ import com.cloudbees.plugins.credentials.common.StandardCredentials;
 import com.cloudbees.plugins.credentials.common.StandardListBoxModel;
 import com.cloudbees.plugins.credentials.domains.DomainRequirement;
 
-import hudson.AbortException;
 import hudson.Extension;
 import hudson.FilePath;
-import hudson.FilePath.FileCallable;
 import hudson.Launcher;
 import hudson.Util;
 import hudson.model.AbstractBuild;
 import hudson.model.AbstractProject;
 import hudson.model.BuildListener;
 import hudson.model.Item;
-import hudson.remoting.VirtualChannel;
+import hudson.model.Label;
 import hudson.security.ACL;
 import hudson.tasks.BuildStepDescriptor;
 import hudson.tasks.BuildStepMonitor;
 import hudson.tasks.Notifier;
 import hudson.tasks.Publisher;
+import hudson.util.FormValidation;
 import hudson.util.ListBoxModel;
+import hudson.util.StreamTaskListener;
 import jenkins.model.Jenkins;
-import jenkins.security.Roles;
+import net.sf.json.JSONObject;
 
 /**
  * Notifier to send artifact to figshare, such as pictures, graphs and other
@@ -103,9 +103,61 @@ public class FigShareNotifier extends Notifier {
      */
     private final String antPattern;
     /**
-     * Credential used.
+     * Maximum number of files uploaded at the same time.
+     */
+    private int uploadThreads = DescriptorImpl.DEFAULT_UPLOAD_THREADS;
+    /**
+     * Whether to skip files whose content was already published by this job.
+     */
+    private boolean skipUnchangedFiles;
+    /**
+     * Whether to publish after the build finished, releasing the executor.
+     */
+    private boolean publishInBackground;
+    /**
+     * Maximum size of a bundle of files, in MB, or 0 to upload each file on its
+     * own.
+     */
+    private int bundleSize;
+    /**
+     * Zip compression level of the bundles, <code>null</code> in jobs saved
+     * before it could be configured.
+     */
+    private Integer compressionLevel = DescriptorImpl.DEFAULT_COMPRESSION_LEVEL;
+    /**
+     * Whether files already compressed are stored in bundles as they are.
+     */
+    private boolean skipCompressedFiles;
+    /**
+     * Whether the same article is updated every time, instead of creating a
+     * new one.
+     */
+    private boolean updateArticle;
+    /**
+     * Article to update, or 0 for the article created by the job.
+     */
+    private long articleId;
+    /**
+     * Priority class, when waiting to publish.
+     */
+    private PublishPriority priority;
+    /**
+     * Whether uploads are verified, and uploaded again when they do not pass.
+     */
+    private boolean verifyUploads;
+    /**
+     * Whether the number of concurrent uploads adapts to the throughput.
      */
-    private final FigShareOauthCredentials credential;
+    private boolean adaptiveConcurrency;
+    /**
+     * Whether the archived artifacts of the build are published, instead of
+     * the files in its workspace.
+     */
+    private boolean publishArtifacts;
+    /**
+     * Label expression of the nodes uploading the files in shards.
+     */
+    private String shardLabel;
 
     /**
      * Constructor called from a Jelly view. The parameters are given by a user.
@@ -121,20 +173,6 @@ public class FigShareNotifier extends Notifier {
         this.articleTitle = articleTitle;
         this.articleDescription = articleDescription;
         this.antPattern = antPattern;
-
-        // Get credential defined by user, using credential ID
-        List<FigShareOauthCredentials> credentials = CredentialsProvider.lookupCredentials(
-                FigShareOauthCredentials.class, Jenkins.getInstance(), ACL.SYSTEM,
-                Collections.<DomainRequirement> emptyList());
-        FigShareOauthCredentials credential = CredentialsMatchers.firstOrNull(credentials,
-                CredentialsMatchers.allOf(CredentialsMatchers.withId(credentialsId)));
-
-        this.credential = credential;
-        if (null == credential) {
-            LOGGER.warning(String.format(
-                    "Could not locate credential with ID %s. figshare integration is disabled for this notifier",
-                    credentialsId));
-        }
     }
 
     /**
@@ -165,6 +203,235 @@ public class FigShareNotifier extends Notifier {
         return antPattern;
     }
 
+    /**
+     * @return the maximum number of concurrent uploads
+     */
+    public int getUploadThreads() {
+        // configurations saved before 0.2 do not have this value
+        return uploadThreads > 0 ? uploadThreads : DescriptorImpl.DEFAULT_UPLOAD_THREADS;
+    }
+
+    /**
+     * @param uploadThreads the maximum number of concurrent uploads
+     */
+    @DataBoundSetter
+    public void setUploadThreads(int uploadThreads) {
+        this.uploadThreads = uploadThreads;
+    }
+
+    /**
+     * @return whether files already published by this job are skipped
+     */
+    public boolean isSkipUnchangedFiles() {
+        return skipUnchangedFiles;
+    }
+
+    /**
+     * @param skipUnchangedFiles whether files already published by this job
+     *            are skipped
+     */
+    @DataBoundSetter
+    public void setSkipUnchangedFiles(boolean skipUnchangedFiles) {
+        this.skipUnchangedFiles = skipUnchangedFiles;
+    }
+
+    /**
+     * @return whether files are published in the background, after the build
+     */
+    public boolean isPublishInBackground() {
+        return publishInBackground;
+    }
+
+    /**
+     * @param publishInBackground whether files are published in the
+     *            background, after the build
+     */
+    @DataBoundSetter
+    public void setPublishInBackground(boolean publishInBackground) {
+        this.publishInBackground = publishInBackground;
+    }
+
+    /**
+     * @return the maximum size of a bundle of files, in MB, or 0 when files
+     *         are not bundled
+     */
+    public int getBundleSize() {
+        return bundleSize;
+    }
+
+    /**
+     * @param bundleSize the maximum size of a bundle of files, in MB, or 0 to
+     *            upload each file on its own
+     */
+    @DataBoundSetter
+    public void setBundleSize(int bundleSize) {
+        this.bundleSize = bundleSize;
+    }
+
+    /**
+     * @return the zip compression level of the bundles
+     */
+    public int getCompressionLevel() {
+        return compressionLevel != null ? compressionLevel : DescriptorImpl.DEFAULT_COMPRESSION_LEVEL;
+    }
+
+    /**
+     * @param compressionLevel the zip compression level of the bundles, from 0
+     *            (none) to 9 (best)
+     */
+    @DataBoundSetter
+    public void setCompressionLevel(int compressionLevel) {
+        this.compressionLevel = compressionLevel;
+    }
+
+    /**
+     * @return whether files already compressed are stored in bundles without
+     *         being compressed again
+     */
+    public boolean isSkipCompressedFiles() {
+        return skipCompressedFiles;
+    }
+
+    /**
+     * @param skipCompressedFiles whether files already compressed are stored
+     *            in bundles without being compressed again
+     */
+    @DataBoundSetter
+    public void setSkipCompressedFiles(boolean skipCompressedFiles) {
+        this.skipCompressedFiles = skipCompressedFiles;
+    }
+
+    /**
+     * @return whether the same article is updated every time, uploading only
+     *         new or changed files
+     */
+    public boolean isUpdateArticle() {
+        return updateArticle;
+    }
+
+    /**
+     * @param updateArticle whether the same article is updated every time,
+     *            uploading only new or changed files
+     */
+    @DataBoundSetter
+    public void setUpdateArticle(boolean updateArticle) {
+        this.updateArticle = updateArticle;
+    }
+
+    /**
+     * @return the article to update, or 0 for the article created by the job
+     *         the first time
+     */
+    public long getArticleId() {
+        return articleId;
+    }
+
+    /**
+     * @param articleId the article to update, or 0 for the article created by
+     *            the job the first time
+     */
+    @DataBoundSetter
+    public void setArticleId(long articleId) {
+        this.articleId = articleId;
+    }
+
+    /**
+     * @return the priority class, when waiting to publish
+     */
+    public PublishPriority getPriority() {
+        return priority != null ? priority : PublishPriority.NORMAL;
+    }
+
+    /**
+     * @param priority the priority class, when waiting to publish
+     */
+    @DataBoundSetter
+    public void setPriority(PublishPriority priority) {
+        this.priority = priority;
+    }
+
+    /**
+     * @return whether uploads are verified, and uploaded again when they do
+     *         not pass
+     */
+    public boolean isVerifyUploads() {
+        return verifyUploads;
+    }
+
+    /**
+     * @param verifyUploads whether uploads are verified, and uploaded again
+     *            when they do not pass
+     */
+    @DataBoundSetter
+    public void setVerifyUploads(boolean verifyUploads) {
+        this.verifyUploads = verifyUploads;
+    }
+
+    /**
+     * @return whether the number of concurrent uploads adapts to the
+     *         throughput, up to the maximum number of concurrent uploads
+     */
+    public boolean isAdaptiveConcurrency() {
+        return adaptiveConcurrency;
+    }
+
+    /**
+     * @param adaptiveConcurrency whether the number of concurrent uploads
+     *            adapts to the throughput, up to the maximum number of
+     *            concurrent uploads
+     */
+    @DataBoundSetter
+    public void setAdaptiveConcurrency(boolean adaptiveConcurrency) {
+        this.adaptiveConcurrency = adaptiveConcurrency;
+    }
+
+    /**
+     * @return whether the archived artifacts of the build are published,
+     *         instead of the files in its workspace
+     */
+    public boolean isPublishArtifacts() {
+        return publishArtifacts;
+    }
+
+    /**
+     * @param publishArtifacts whether the archived artifacts of the build are
+     *            published, instead of the files in its workspace
+     */
+    @DataBoundSetter
+    public void setPublishArtifacts(boolean publishArtifacts) {
+        this.publishArtifacts = publishArtifacts;
+    }
+
+    /**
+     * @return label expression of the nodes uploading the files in shards,
+     *         or <code>null</code> to upload them from the node with the files
+     */
+    public String getShardLabel() {
+        return shardLabel;
+    }
+
+    /**
+     * @param shardLabel label expression of the nodes uploading the files in
+     *            shards, or empty to upload them from the node with the files
+     */
+    @DataBoundSetter
+    public void setShardLabel(String shardLabel) {
+        this.shardLabel = Util.fixEmptyAndTrim(shardLabel);
+    }
+
+    /**
+     * Apply the defaults of the settings missing in jobs saved by earlier
+     * versions.
+     *
+     * @return this notifier
+     */
+    protected Object readResolve() {
+        if (compressionLevel == null) {
+            compressionLevel = DescriptorImpl.DEFAULT_COMPRESSION_LEVEL;
+        }
+        return this;
+    }
+
     @Override
     public BuildStepMonitor getRequiredMonitorService() {
         return BuildStepMonitor.NONE;
@@ -174,154 +441,300 @@ public class FigShareNotifier extends Notifier {
     public boolean perform(AbstractBuild<?, ?> build, Launcher launcher, BuildListener listener)
             throws InterruptedException, IOException {
         listener.getLogger().println("Looking for files to upload to figshare...");
+        // resolved for every build, so that updated secrets are used
+        final FigShareOauthCredentials credential = CredentialsCache.get(credentialsId, build.getParent());
         // TBD: if users ask to fail the build when figshare is not executed,
         // let's make
         // that a feature. Not right now.
         if (null != credential) {
-            FilePath workspace = build.getWorkspace();
-            if (null != workspace) {
-                FilePath[] files = workspace.list(antPattern);
-                if (null != files && files.length > 0) {
-                    if (LOGGER.isLoggable(Level.FINEST)) {
-                        LOGGER.log(Level.FINEST, "Creating FileCallable...");
-                    }
-                    FigShareCallable callable = new FigShareCallable(antPattern, articleTitle, articleDescription,
-                            credential, listener.getLogger());
-                    if (LOGGER.isLoggable(Level.FINEST)) {
-                        LOGGER.log(Level.FINEST, "Calling FileCallable...");
-                    }
-                    try {
-                        workspace.act(callable);
-                    } catch (RuntimeException re) {
-                        LOGGER.log(Level.WARNING, "Error executing figshare: " + re.getMessage(), re);
-                        throw new AbortException("Error executing figshare: " + re.getMessage());
-                    }
+            // archived artifacts are read in the master, with no need for the agent
+            final FilePath files = publishArtifacts ? ArtifactSource.root(build) : build.getWorkspace();
+            final File checkpointDirectory = publishArtifacts ? build.getRootDir() : null;
+            if (null != files && publishInBackground && !publishArtifacts) {
+                // another build may change or delete the workspace once this one finished
+                listener.getLogger().println("Only archived artifacts are published in the background. "
+                        + "Publishing the workspace before the build finishes.");
+            }
+            if (null != files) {
+                if (publishInBackground && publishArtifacts) {
+                    final FigSharePublishAction action = new FigSharePublishAction(Status.QUEUED);
+                    build.addAction(action);
+                    PublishQueue.submit(new BackgroundPublication(build, files, checkpointDirectory,
+                            newTask(build, credential), action));
+                    listener.getLogger().println(
+                            "figshare publication queued. Its outcome will be shown in the build page.");
                 } else {
-                    listener.getLogger().println("No files found. Skip creating an empty figshare article.");
+                    PublishResult result = newTask(build, credential).publish(files, checkpointDirectory,
+                            listener.getLogger());
+                    if (null != result) {
+                        final FigSharePublishAction action = new FigSharePublishAction(Status.PUBLISHED);
+                        action.published(result);
+                        build.addAction(action);
+                    }
                 }
+            } else if (publishArtifacts) {
+                listener.getLogger().println("No archived artifacts. Skip creating an empty figshare article.");
             } else {
                 listener.getLogger().println("Missing workspace. Skip creating an empty figshare article.");
             }
         } else {
-            listener.getLogger().println("No credentials found. Skipping figshare post build step.");
+            listener.getLogger().println(String.format(
+                    "No credentials found with ID %s. Skipping figshare post build step.", credentialsId));
         }
         return Boolean.TRUE;
     }
 
     /**
-     * {#link FileCallable} used to execute upload in the slave with the files.
+     * @param build the build
+     * @param credential figshare credential
+     * @return the publication of the build files
+     */
+    private PublishTask newTask(AbstractBuild<?, ?> build, FigShareOauthCredentials credential) {
+        // the master publishes the archived artifacts
+        return new PublishTask(build.getParent(), publishArtifacts ? "" : build.getBuiltOnStr(), credentialsId,
+                credential, articleTitle, articleDescription, antPattern,
+                UploadOptions.of(getUploadThreads(), bundleSize, getCompressionLevel(), skipCompressedFiles,
+                        verifyUploads, adaptiveConcurrency),
+                skipUnchangedFiles, updateArticle, articleId, getPriority(), shardLabel);
+    }
+
+    /**
+     * Publication run in the {@link PublishQueue}, after the build finished.
+     * Its output goes to a log file in the build directory. Only the archived
+     * artifacts are published in the background, as the workspace may be used
+     * by another build once this one finished.
+     */
+    private final class BackgroundPublication implements Runnable {
+
+        private final AbstractBuild<?, ?> build;
+        private final FilePath files;
+        private final File checkpointDirectory;
+        private final PublishTask task;
+        private final FigSharePublishAction action;
+
+        BackgroundPublication(AbstractBuild<?, ?> build, FilePath files, File checkpointDirectory, PublishTask task,
+                FigSharePublishAction action) {
+            this.build = build;
+            this.files = files;
+            this.checkpointDirectory = checkpointDirectory;
+            this.task = task;
+            this.action = action;
+        }
+
+        @Override
+        public void run() {
+            StreamTaskListener listener = null;
+            try {
+                listener = new StreamTaskListener(new File(build.getRootDir(), FigSharePublishAction.LOG_FILE_NAME));
+                action.running();
+                PublishResult result = task.publish(files, checkpointDirectory, listener.getLogger());
+                if (null != result) {
+                    action.published(result);
+                } else {
+                    action.skipped();
+                }
+            } catch (IOException ioe) {
+                fail(listener, ioe);
+            } catch (InterruptedException ie) {
+                fail(listener, ie);
+            } catch (RuntimeException re) {
+                fail(listener, re);
+            } finally {
+                if (null != listener) {
+                    listener.closeQuietly();
+                }
+                try {
+                    build.save();
+                } catch (IOException ioe) {
+                    LOGGER.log(Level.WARNING, "Could not save " + build, ioe);
+                }
+            }
+        }
+
+        private void fail(StreamTaskListener listener, Exception e) {
+            LOGGER.log(Level.WARNING, "Error publishing " + build + " to figshare", e);
+            if (null != listener) {
+                e.printStackTrace(listener.error("Error publishing to figshare"));
+            }
+            action.failed(e.getMessage());
+        }
+
+    }
+
+    /**
+     * Notifier descriptor.
      * 
      * @author Bruno P. Kinoshita
      * @since 0.1
      */
-    private static final class FigShareCallable implements FileCallable<Void> {
+    @Extension
+    public final static class DescriptorImpl extends BuildStepDescriptor<Publisher> {
 
-        private static final String FIGSHARE_ARTICLE_DEFAULT_TYPE = "dataset";
+        /**
+         * Default number of concurrent uploads, which keeps the behaviour of
+         * uploading one file at a time.
+         */
+        public static final int DEFAULT_UPLOAD_THREADS = 1;
 
-        /*
-         * Serial UID.
+        /**
+         * Default zip compression level of the bundles.
          */
-        private static final long serialVersionUID = 5511693287716237552L;
+        public static final int DEFAULT_COMPRESSION_LEVEL = 6;
 
-        private final String includes;
-        private final String title;
-        private final String description;
+        /**
+         * Default figshare API endpoint.
+         */
+        public static final String DEFAULT_ENDPOINT = "http://api.figshare.com/";
 
-        /*
-         * From build listener.
+        /**
+         * Default figshare API version.
          */
-        private final PrintStream ps;
-        private final FigShareOauthCredentials credential;
+        public static final int DEFAULT_API_VERSION = 1;
 
         /**
-         * Internal only constructor.
-         *
-         * @param includes ant include pattern
-         * @param title article title
-         * @param description article description
-         * @param credential credential
-         * @param ps job output
+         * figshare API endpoint, e.g. an institutional mirror or a caching
+         * proxy, or <code>null</code> for the default endpoint.
+         */
+        private String endpoint;
+
+        /**
+         * figshare API version, or 0 for the default version.
+         */
+        private int apiVersion;
+
+        /**
+         * Maximum number of publications running at the same time, or 0 for
+         * no limit.
+         */
+        private int maxPublications;
+
+        /**
+         * Maximum number of publications running at the same time with the
+         * same credential, or 0 for no limit.
+         */
+        private int maxPublicationsPerCredential;
+
+        /**
+         * Upload rate budget shared by the running publications, in KB/s, or
+         * 0 for no limit.
+         */
+        private int maxUploadRate;
+
+        /**
+         * Used internally only.
          */
-        FigShareCallable(String includes, String title, String description, FigShareOauthCredentials credential,
-                PrintStream ps) {
-            this.includes = includes;
-            this.title = title;
-            this.description = description;
-            this.credential = credential;
-            this.ps = ps;
+        public DescriptorImpl() {
+            super(FigShareNotifier.class);
+            load();
         }
 
         /*
          * (non-Javadoc)
          * 
-         * @see org.jenkinsci.remoting.RoleSensitive#checkRoles(org.jenkinsci.
-         * remoting.RoleChecker)
+         * @see hudson.model.Descriptor#configure(org.kohsuke.stapler.
+         * StaplerRequest, net.sf.json.JSONObject)
          */
         @Override
-        public void checkRoles(RoleChecker checker) throws SecurityException {
-            // OK to execute it anywhere
-            checker.check(this, Arrays.asList(Roles.MASTER, Roles.SLAVE));
+        public boolean configure(StaplerRequest req, JSONObject json) throws FormException {
+            req.bindJSON(this, json);
+            if (getMaxUploadRate() > 0 && getMaxPublications() == 0) {
+                throw new FormException("The upload rate budget requires a maximum number of publications",
+                        "maxPublications");
+            }
+            save();
+            return true;
         }
 
-        /*
-         * (non-Javadoc)
-         * 
-         * @see hudson.FilePath.FileCallable#invoke(java.io.File,
-         * hudson.remoting.VirtualChannel)
+        /**
+         * @return the figshare API endpoint used by every job, ending with a
+         *         slash
          */
-        @Override
-        public Void invoke(File f, VirtualChannel channel) throws IOException, InterruptedException {
-            FileSet fs = Util.createFileSet(f, includes, null);
-            fs.setDefaultexcludes(/* defaultExcludes */ true);
-            DirectoryScanner ds = fs.getDirectoryScanner(new Project());
-            String[] files = ds.getIncludedFiles();
-            if (null != files && files.length > 0) {
-                // TBD: externalise this as an advanced option in the job
-                // configuration
-                if (LOGGER.isLoggable(Level.FINE)) {
-                    LOGGER.log(Level.FINE, "Initialising the figshare API");
-                }
-                final FigShareClient figshare = FigShareClient.to("http://api.figshare.com/", 1,
-                        credential.getClientKey(), credential.getClientSecret().getPlainText(),
-                        credential.getTokenKey(), credential.getTokenSecret().getPlainText());
-                if (LOGGER.isLoggable(Level.FINE)) {
-                    LOGGER.log(Level.FINE, String.format("Creating article %s, description: %s", title, description));
-                }
-                Article article = figshare.createArticle(title, description, FIGSHARE_ARTICLE_DEFAULT_TYPE);
-                ps.println(String.format("Article %d created!", article.getArticleId()));
-                if (LOGGER.isLoggable(Level.FINE)) {
-                    LOGGER.log(Level.FINE, "Uploading files...");
-                }
-                for (final String file : files) {
-                    final File fileToUpload = new File(f, file);
-                    org.biouno.figshare.v1.model.File uploaded = figshare.uploadFile(article.getArticleId(),
-                            fileToUpload);
-                    ps.println(String.format("File %s/%s uploaded as %s to article %d", uploaded.getName(),
-                            uploaded.getSize(), uploaded.getMimeType(), article.getArticleId()));
-                }
-            } else {
-                ps.println(String.format("No files found for pattern %s", includes));
+        public String getEndpoint() {
+            String url = Util.fixEmptyAndTrim(endpoint);
+            if (url == null) {
+                return DEFAULT_ENDPOINT;
             }
-            return null;
+            return url.endsWith("/") ? url : url + "/";
         }
 
-    }
+        /**
+         * @param endpoint the figshare API endpoint, or empty for the default
+         *            endpoint
+         */
+        public void setEndpoint(String endpoint) {
+            this.endpoint = Util.fixEmptyAndTrim(endpoint);
+        }
 
-    /**
-     * Notifier descriptor.
-     * 
-     * @author Bruno P. Kinoshita
-     * @since 0.1
-     */
-    @Extension
-    public final static class DescriptorImpl extends BuildStepDescriptor<Publisher> {
+        /**
+         * @return the figshare API version used by every job
+         */
+        public int getApiVersion() {
+            return apiVersion > 0 ? apiVersion : DEFAULT_API_VERSION;
+        }
 
         /**
-         * Used internally only.
+         * @param apiVersion the figshare API version, or 0 for the default
+         *            version
          */
-        public DescriptorImpl() {
-            super(FigShareNotifier.class);
-            load();
+        public void setApiVersion(int apiVersion) {
+            this.apiVersion = apiVersion;
+        }
+
+        /**
+         * @return the maximum number of publications running at the same
+         *         time, or 0 for no limit
+         */
+        public int getMaxPublications() {
+            return Math.max(0, maxPublications);
+        }
+
+        /**
+         * @param maxPublications the maximum number of publications running at
+         *            the same time, or 0 for no limit
+         */
+        public void setMaxPublications(int maxPublications) {
+            this.maxPublications = maxPublications;
+        }
+
+        /**
+         * @return the maximum number of publications running at the same time
+         *         with the same credential, or 0 for no limit
+         */
+        public int getMaxPublicationsPerCredential() {
+            return Math.max(0, maxPublicationsPerCredential);
+        }
+
+        /**
+         * @param maxPublicationsPerCredential the maximum number of
+         *            publications running at the same time with the same
+         *            credential, or 0 for no limit
+         */
+        public void setMaxPublicationsPerCredential(int maxPublicationsPerCredential) {
+            this.maxPublicationsPerCredential = maxPublicationsPerCredential;
+        }
+
+        /**
+         * @return the upload rate budget shared by the running publications,
+         *         in KB/s, or 0 for no limit
+         */
+        public int getMaxUploadRate() {
+            return Math.max(0, maxUploadRate);
+        }
+
+        /**
+         * @param maxUploadRate the upload rate budget shared by the running
+         *            publications, in KB/s, or 0 for no limit
+         */
+        public void setMaxUploadRate(int maxUploadRate) {
+            this.maxUploadRate = maxUploadRate;
+        }
+
+        /**
+         * @return the upload rate budget, in bytes per second, or 0 for no
+         *         limit
+         */
+        long getMaxBytesPerSecond() {
+            return getMaxUploadRate() * 1024L;
         }
 
         /*
@@ -366,5 +779,176 @@ public class FigShareNotifier extends Notifier {
                             domainRequirements));
         }
 
+        /**
+         * Validates the number of concurrent uploads.
+         *
+         * @param value number of concurrent uploads
+         * @return validation result
+         */
+        public FormValidation doCheckUploadThreads(@QueryParameter String value) {
+            return FormValidation.validatePositiveInteger(value);
+        }
+
+        /**
+         * Validates the maximum size of a bundle.
+         *
+         * @param value maximum size of a bundle, in MB
+         * @return validation result
+         */
+        public FormValidation doCheckBundleSize(@QueryParameter String value) {
+            return FormValidation.validateNonNegativeInteger(value);
+        }
+
+        /**
+         * Validates the figshare API endpoint.
+         *
+         * @param value endpoint URL, or empty for the default endpoint
+         * @return validation result
+         */
+        public FormValidation doCheckEndpoint(@QueryParameter String value) {
+            String url = Util.fixEmptyAndTrim(value);
+            if (url == null) {
+                return FormValidation.ok();
+            }
+            try {
+                String protocol = new URL(url).getProtocol();
+                if ("http".equals(protocol) || "https".equals(protocol)) {
+                    return FormValidation.ok();
+                }
+            } catch (MalformedURLException mue) {
+                // reported below
+            }
+            return FormValidation.error("Not an HTTP(S) URL");
+        }
+
+        /**
+         * Validates the maximum number of publications.
+         *
+         * @param value maximum number of publications, or 0
+         * @return validation result
+         */
+        public FormValidation doCheckMaxPublications(@QueryParameter String value) {
+            return FormValidation.validateNonNegativeInteger(value);
+        }
+
+        /**
+         * Validates the maximum number of publications per credential.
+         *
+         * @param value maximum number of publications, or 0
+         * @return validation result
+         */
+        public FormValidation doCheckMaxPublicationsPerCredential(@QueryParameter String value) {
+            return FormValidation.validateNonNegativeInteger(value);
+        }
+
+        /**
+         * Validates the upload rate budget, which is shared by a maximum number
+         * of publications.
+         *
+         * @param value upload rate, in KB/s, or 0
+         * @param maxPublications maximum number of publications, or 0
+         * @return validation result
+         */
+        public FormValidation doCheckMaxUploadRate(@QueryParameter String value,
+                @QueryParameter String maxPublications) {
+            final FormValidation validation = FormValidation.validateNonNegativeInteger(value);
+            if (validation.kind != FormValidation.Kind.OK) {
+                return validation;
+            }
+            if (Integer.parseInt(Util.fixEmptyAndTrim(value)) > 0
+                    && "0".equals(Util.fixEmptyAndTrim(maxPublications))) {
+                return FormValidation.error("Set a maximum number of publications to share the budget among");
+            }
+            return validation;
+        }
+
+        /**
+         * Validates the figshare API version.
+         *
+         * @param value API version
+         * @return validation result
+         */
+        public FormValidation doCheckApiVersion(@QueryParameter String value) {
+            return FormValidation.validatePositiveInteger(value);
+        }
+
+        /**
+         * Validates the ID of the article to update.
+         *
+         * @param value figshare article ID, or 0
+         * @return validation result
+         */
+        public FormValidation doCheckArticleId(@QueryParameter String value) {
+            try {
+                if (Long.parseLong(Util.fixEmptyAndTrim(value)) >= 0) {
+                    return FormValidation.ok();
+                }
+            } catch (NumberFormatException nfe) {
+                // reported below
+            }
+            return FormValidation.error("Not a figshare article ID");
+        }
+
+        /**
+         * Validates the label expression of the nodes uploading the files in
+         * shards.
+         *
+         * @param value label expression, or empty
+         * @return validation result
+         */
+        public FormValidation doCheckShardLabel(@QueryParameter String value) {
+            final String expression = Util.fixEmptyAndTrim(value);
+            if (expression == null) {
+                return FormValidation.ok();
+            }
+            final Label label;
+            try {
+                label = Label.parseExpression(expression);
+            } catch (ANTLRException ae) {
+                return FormValidation.error("Invalid label expression: " + ae.getMessage());
+            }
+            final Label known = Jenkins.getInstance().getLabel(label.getExpression());
+            if (known == null || known.getNodes().isEmpty()) {
+                return FormValidation.warning("No node matches this label expression");
+            }
+            return FormValidation.ok(String.format("%d node(s) match this label expression",
+                    known.getNodes().size()));
+        }
+
+        /**
+         * Validates publishing in the background, which needs the archived
+         * artifacts.
+         *
+         * @param value whether files are published in the background
+         * @param publishArtifacts whether the archived artifacts are published
+         * @return validation result
+         */
+        public FormValidation doCheckPublishInBackground(@QueryParameter boolean value,
+                @QueryParameter boolean publishArtifacts) {
+            if (value && !publishArtifacts) {
+                return FormValidation.warning("Only archived artifacts are published in the background. The "
+                        + "workspace is published before the build finishes");
+            }
+            return FormValidation.ok();
+        }
+
+        /**
+         * Validates the compression level.
+         *
+         * @param value compression level
+         * @return validation result
+         */
+        public FormValidation doCheckCompressionLevel(@QueryParameter String value) {
+            try {
+                int level = Integer.parseInt(Util.fixEmptyAndTrim(value));
+                if (level >= 0 && level <= 9) {
+                    return FormValidation.ok();
+                }
+            } catch (NumberFormatException nfe) {
+                // reported below
+            }
+            return FormValidation.error("The compression level must be a number from 0 to 9");
+        }
+
     }
 }
@@ -0,0 +1,195 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2015 Bruno P. Kinoshita, BioUno team
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package org.biouno.figshare;
+
+import java.io.File;
+import java.io.IOException;
+
+import hudson.Util;
+import hudson.model.Run;
+import jenkins.model.RunAction2;
+
+/**
+ * Records the figshare article published by a build, and the status of the
+ * publication when it runs in the background.
+ *
+ * @author Bruno P. Kinoshita
+ * @since 0.2
+ */
+public class FigSharePublishAction implements RunAction2 {
+
+    /**
+     * Log of publications run in the background, in the build directory.
+     */
+    static final String LOG_FILE_NAME = "figshare.log";
+
+    /**
+     * Publication status.
+     */
+    public enum Status {
+        QUEUED, RUNNING, PUBLISHED, SKIPPED, FAILED
+    }
+
+    private volatile Status status;
+    private volatile long articleId = -1;
+    private volatile String message;
+    private volatile UploadStatistics statistics;
+    private transient Run<?, ?> run;
+
+    /**
+     * @param status initial status
+     */
+    FigSharePublishAction(Status status) {
+        this.status = status;
+    }
+
+    /**
+     * @return the build that published the files
+     */
+    public Run<?, ?> getRun() {
+        return run;
+    }
+
+    /**
+     * @return the publication status
+     */
+    public Status getStatus() {
+        return status;
+    }
+
+    /**
+     * @return the figshare article ID, or -1 if no article was created
+     */
+    public long getArticleId() {
+        return articleId;
+    }
+
+    /**
+     * @return statistics of the publication, or <code>null</code> if not
+     *         published yet
+     */
+    public UploadStatistics getStatistics() {
+        return statistics;
+    }
+
+    /**
+     * @return an error message, when the publication failed
+     */
+    public String getMessage() {
+        return message;
+    }
+
+    /**
+     * @return whether the publication ran in the background, with its own log
+     */
+    public boolean isLogged() {
+        return run != null && getLogFile().isFile();
+    }
+
+    /**
+     * @return the log of a publication run in the background
+     * @throws IOException if the log cannot be read
+     */
+    public String getLog() throws IOException {
+        return isLogged() ? Util.loadFile(getLogFile()) : "";
+    }
+
+    File getLogFile() {
+        return new File(run.getRootDir(), LOG_FILE_NAME);
+    }
+
+    void running() {
+        status = Status.RUNNING;
+    }
+
+    void published(PublishResult result) {
+        this.articleId = result.getArticleId();
+        this.statistics = result.getStatistics();
+        status = Status.PUBLISHED;
+    }
+
+    void skipped() {
+        status = Status.SKIPPED;
+    }
+
+    void failed(String message) {
+        this.message = message;
+        status = Status.FAILED;
+    }
+
+    /*
+     * (non-Javadoc)
+     * 
+     * @see hudson.model.Action#getIconFileName()
+     */
+    @Override
+    public String getIconFileName() {
+        return "document.png";
+    }
+
+    /*
+     * (non-Javadoc)
+     * 
+     * @see hudson.model.ModelObject#getDisplayName()
+     */
+    @Override
+    public String getDisplayName() {
+        return "figshare";
+    }
+
+    /*
+     * (non-Javadoc)
+     * 
+     * @see hudson.model.Action#getUrlName()
+     */
+    @Override
+    public String getUrlName() {
+        return "figshare";
+    }
+
+    /*
+     * (non-Javadoc)
+     * 
+     * @see jenkins.model.RunAction2#onAttached(hudson.model.Run)
+     */
+    @Override
+    public void onAttached(Run<?, ?> r) {
+        this.run = r;
+    }
+
+    /*
+     * (non-Javadoc)
+     * 
+     * @see jenkins.model.RunAction2#onLoad(hudson.model.Run)
+     */
+    @Override
+    public void onLoad(Run<?, ?> r) {
+        this.run = r;
+        if (status == Status.QUEUED || status == Status.RUNNING) {
+            // the queue does not survive a restart
+            failed("Jenkins was restarted before the publication finished");
+        }
+    }
+
+}
@@ -0,0 +1,503 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2015 Bruno P. Kinoshita, BioUno team
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package org.biouno.figshare;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Map;
+
+import javax.inject.Inject;
+
+import org.biouno.figshare.credentials.CredentialsCache;
+import org.biouno.figshare.credentials.FigShareOauthCredentials;
+import org.jenkinsci.plugins.workflow.steps.AbstractStepDescriptorImpl;
+import org.jenkinsci.plugins.workflow.steps.AbstractStepImpl;
+import org.jenkinsci.plugins.workflow.steps.AbstractSynchronousNonBlockingStepExecution;
+import org.jenkinsci.plugins.workflow.steps.StepContextParameter;
+import org.kohsuke.stapler.AncestorInPath;
+import org.kohsuke.stapler.DataBoundConstructor;
+import org.kohsuke.stapler.DataBoundSetter;
+import org.kohsuke.stapler.QueryParameter;
+
+import com.cloudbees.plugins.credentials.CredentialsMatchers;
+import com.cloudbees.plugins.credentials.CredentialsProvider;
+import com.cloudbees.plugins.credentials.common.StandardCredentials;
+import com.cloudbees.plugins.credentials.common.StandardListBoxModel;
+import com.cloudbees.plugins.credentials.domains.DomainRequirement;
+
+import hudson.AbortException;
+import hudson.Extension;
+import hudson.FilePath;
+import hudson.Util;
+import hudson.model.Computer;
+import hudson.model.Item;
+import hudson.model.Run;
+import hudson.model.TaskListener;
+import hudson.security.ACL;
+import hudson.util.ListBoxModel;
+
+/**
+ * <p>
+ * Pipeline step publishing files from the workspace to a new figshare
+ * article, e.g.
+ * </p>
+ *
+ * <pre>
+ * def article = figsharePublish credentialsId: 'lab-01', articleTitle: 'Plots',
+ *         articleDescription: 'Nightly plots', antPattern: '**&#47;*.png'
+ * echo "Published article ${article.articleId}, files ${article.files}"
+ * </pre>
+ *
+ * <p>
+ * The step returns a map with the <code>articleId</code>, the number of files
+ * uploaded in <code>fileCount</code>, and the figshare file IDs by file path
+ * in <code>files</code>, up to {@link #MAX_RETURNED_FILES}, or
+ * <code>null</code> if no files were found. It can run from many <code>parallel</code> branches at once:
+ * each call has its own article and checkpoint, while the branches running on
+ * the same node share the figshare clients and the request scheduler of that
+ * node. The workspace is published from within a <code>node</code> block,
+ * while the archived artifacts, with <code>publishArtifacts: true</code>, can
+ * be published outside of any.
+ * </p>
+ *
+ * @author Bruno P. Kinoshita
+ * @since 0.2
+ */
+public class FigSharePublishStep extends AbstractStepImpl {
+
+    /**
+     * Maximum number of files whose figshare file ID is returned.
+     */
+    static final int MAX_RETURNED_FILES = Math.max(0,
+            Integer.getInteger(FigSharePublishStep.class.getName() + ".maxReturnedFiles", 1000));
+
+    private final String credentialsId;
+    private final String articleTitle;
+    private final String articleDescription;
+    private final String antPattern;
+    private int uploadThreads = FigShareNotifier.DescriptorImpl.DEFAULT_UPLOAD_THREADS;
+    private boolean skipUnchangedFiles;
+    private int bundleSize;
+    private int compressionLevel = FigShareNotifier.DescriptorImpl.DEFAULT_COMPRESSION_LEVEL;
+    private boolean skipCompressedFiles;
+    private boolean updateArticle;
+    private long articleId;
+    private PublishPriority priority;
+    private boolean verifyUploads;
+    private boolean adaptiveConcurrency;
+    private boolean publishArtifacts;
+    private String shardLabel;
+
+    /**
+     * @param credentialsId figshare credential ID
+     * @param articleTitle figshare article title
+     * @param articleDescription figshare article description
+     * @param antPattern an ant-like pattern (e.g. **\/*.png)
+     */
+    @DataBoundConstructor
+    public FigSharePublishStep(String credentialsId, String articleTitle, String articleDescription,
+            String antPattern) {
+        this.credentialsId = credentialsId;
+        this.articleTitle = articleTitle;
+        this.articleDescription = articleDescription;
+        this.antPattern = antPattern;
+    }
+
+    /**
+     * @return the credentialsId
+     */
+    public String getCredentialsId() {
+        return credentialsId;
+    }
+
+    /**
+     * @return the articleTitle
+     */
+    public String getArticleTitle() {
+        return articleTitle;
+    }
+
+    /**
+     * @return the articleDescription
+     */
+    public String getArticleDescription() {
+        return articleDescription;
+    }
+
+    /**
+     * @return the antPattern
+     */
+    public String getAntPattern() {
+        return antPattern;
+    }
+
+    /**
+     * @return the maximum number of concurrent uploads
+     */
+    public int getUploadThreads() {
+        return uploadThreads;
+    }
+
+    /**
+     * @param uploadThreads the maximum number of concurrent uploads
+     */
+    @DataBoundSetter
+    public void setUploadThreads(int uploadThreads) {
+        this.uploadThreads = uploadThreads;
+    }
+
+    /**
+     * @return whether files already published by this job are skipped
+     */
+    public boolean isSkipUnchangedFiles() {
+        return skipUnchangedFiles;
+    }
+
+    /**
+     * @param skipUnchangedFiles whether files already published by this job
+     *            are skipped
+     */
+    @DataBoundSetter
+    public void setSkipUnchangedFiles(boolean skipUnchangedFiles) {
+        this.skipUnchangedFiles = skipUnchangedFiles;
+    }
+
+    /**
+     * @return the maximum size of a bundle of files, in MB, or 0 when files
+     *         are not bundled
+     */
+    public int getBundleSize() {
+        return bundleSize;
+    }
+
+    /**
+     * @param bundleSize the maximum size of a bundle of files, in MB, or 0 to
+     *            upload each file on its own
+     */
+    @DataBoundSetter
+    public void setBundleSize(int bundleSize) {
+        this.bundleSize = bundleSize;
+    }
+
+    /**
+     * @return the zip compression level of the bundles
+     */
+    public int getCompressionLevel() {
+        return compressionLevel;
+    }
+
+    /**
+     * @param compressionLevel the zip compression level of the bundles, from 0
+     *            (none) to 9 (best)
+     */
+    @DataBoundSetter
+    public void setCompressionLevel(int compressionLevel) {
+        this.compressionLevel = compressionLevel;
+    }
+
+    /**
+     * @return whether files already compressed are stored in bundles without
+     *         being compressed again
+     */
+    public boolean isSkipCompressedFiles() {
+        return skipCompressedFiles;
+    }
+
+    /**
+     * @param skipCompressedFiles whether files already compressed are stored
+     *            in bundles without being compressed again
+     */
+    @DataBoundSetter
+    public void setSkipCompressedFiles(boolean skipCompressedFiles) {
+        this.skipCompressedFiles = skipCompressedFiles;
+    }
+
+    /**
+     * @return whether the same article is updated every time, uploading only
+     *         new or changed files
+     */
+    public boolean isUpdateArticle() {
+        return updateArticle;
+    }
+
+    /**
+     * @param updateArticle whether the same article is updated every time,
+     *            uploading only new or changed files
+     */
+    @DataBoundSetter
+    public void setUpdateArticle(boolean updateArticle) {
+        this.updateArticle = updateArticle;
+    }
+
+    /**
+     * @return the article to update, or 0 for the article created by the job
+     *         the first time
+     */
+    public long getArticleId() {
+        return articleId;
+    }
+
+    /**
+     * @param articleId the article to update, or 0 for the article created by
+     *            the job the first time
+     */
+    @DataBoundSetter
+    public void setArticleId(long articleId) {
+        this.articleId = articleId;
+    }
+
+    /**
+     * @return the priority class, when waiting to publish
+     */
+    public PublishPriority getPriority() {
+        return priority != null ? priority : PublishPriority.NORMAL;
+    }
+
+    /**
+     * @param priority the priority class, when waiting to publish
+     */
+    @DataBoundSetter
+    public void setPriority(PublishPriority priority) {
+        this.priority = priority;
+    }
+
+    /**
+     * @return whether uploads are verified, and uploaded again when they do
+     *         not pass
+     */
+    public boolean isVerifyUploads() {
+        return verifyUploads;
+    }
+
+    /**
+     * @param verifyUploads whether uploads are verified, and uploaded again
+     *            when they do not pass
+     */
+    @DataBoundSetter
+    public void setVerifyUploads(boolean verifyUploads) {
+        this.verifyUploads = verifyUploads;
+    }
+
+    /**
+     * @return whether the number of concurrent uploads adapts to the
+     *         throughput, up to the maximum number of concurrent uploads
+     */
+    public boolean isAdaptiveConcurrency() {
+        return adaptiveConcurrency;
+    }
+
+    /**
+     * @param adaptiveConcurrency whether the number of concurrent uploads
+     *            adapts to the throughput, up to the maximum number of
+     *            concurrent uploads
+     */
+    @DataBoundSetter
+    public void setAdaptiveConcurrency(boolean adaptiveConcurrency) {
+        this.adaptiveConcurrency = adaptiveConcurrency;
+    }
+
+    /**
+     * @return whether the archived artifacts of the build are published,
+     *         instead of the files in the workspace
+     */
+    public boolean isPublishArtifacts() {
+        return publishArtifacts;
+    }
+
+    /**
+     * @param publishArtifacts whether the archived artifacts of the build are
+     *            published, instead of the files in the workspace
+     */
+    @DataBoundSetter
+    public void setPublishArtifacts(boolean publishArtifacts) {
+        this.publishArtifacts = publishArtifacts;
+    }
+
+    /**
+     * @return label expression of the nodes uploading the files in shards,
+     *         or <code>null</code> to upload them from the node with the files
+     */
+    public String getShardLabel() {
+        return shardLabel;
+    }
+
+    /**
+     * @param shardLabel label expression of the nodes uploading the files in
+     *            shards, or empty to upload them from the node with the files
+     */
+    @DataBoundSetter
+    public void setShardLabel(String shardLabel) {
+        this.shardLabel = Util.fixEmptyAndTrim(shardLabel);
+    }
+
+    /**
+     * Runs the step outside of the Pipeline thread, as uploads may take long.
+     *
+     * @author Bruno P. Kinoshita
+     * @since 0.2
+     */
+    public static class Execution extends AbstractSynchronousNonBlockingStepExecution<Map<String, Object>> {
+
+        /*
+         * Serial UID.
+         */
+        private static final long serialVersionUID = -3338237530565546545L;
+
+        @Inject
+        private transient FigSharePublishStep step;
+        // the workspace and its computer are read from the context only when
+        // publishing them, so that archived artifacts need no node block
+        @StepContextParameter
+        private transient Run<?, ?> run;
+        @StepContextParameter
+        private transient TaskListener listener;
+
+        /*
+         * (non-Javadoc)
+         * 
+         * @see org.jenkinsci.plugins.workflow.steps.
+         * AbstractSynchronousStepExecution#run()
+         */
+        @Override
+        protected Map<String, Object> run() throws Exception {
+            final FigShareOauthCredentials credential = CredentialsCache.get(step.credentialsId, run.getParent());
+            if (null == credential) {
+                throw new AbortException(String.format("No figshare credentials found with ID %s",
+                        step.credentialsId));
+            }
+            listener.getLogger().println("Looking for files to upload to figshare...");
+            // archived artifacts are read in the master, leaving the agent alone
+            final FilePath files;
+            final String node;
+            if (step.publishArtifacts) {
+                files = ArtifactSource.root(run);
+                if (null == files) {
+                    listener.getLogger().println("No archived artifacts. Skip creating an empty figshare article.");
+                    return null;
+                }
+                node = "";
+            } else {
+                files = getContext().get(FilePath.class);
+                final Computer computer = getContext().get(Computer.class);
+                if (null == files || null == computer) {
+                    throw new AbortException("figsharePublish publishes the workspace from within a node block, "
+                            + "or the archived artifacts with publishArtifacts: true");
+                }
+                node = computer.getName();
+            }
+            final PublishTask task = new PublishTask(run.getParent(), node, step.credentialsId,
+                    credential, step.articleTitle, step.articleDescription, step.antPattern,
+                    UploadOptions.of(step.uploadThreads, step.bundleSize, step.compressionLevel,
+                            step.skipCompressedFiles, step.verifyUploads, step.adaptiveConcurrency),
+                    step.skipUnchangedFiles, step.updateArticle, step.articleId, step.getPriority(),
+                    step.shardLabel);
+            // the step returns the figshare file of the first paths, read from
+            // the node one at a time, and counts the others
+            final Map<String, String> uploaded = new HashMap<String, String>();
+            final long[] count = new long[1];
+            final PublishResult result = task.publish(files, step.publishArtifacts ? run.getRootDir() : null,
+                    listener.getLogger(), new PublishResult.Records() {
+                        @Override
+                        void file(String path, String fileId) {
+                            if (uploaded.size() < MAX_RETURNED_FILES) {
+                                uploaded.put(path, fileId);
+                            }
+                            count[0]++;
+                        }
+                    });
+            if (null == result) {
+                return null;
+            }
+            final Map<String, Object> article = new HashMap<String, Object>();
+            article.put("articleId", result.getArticleId());
+            article.put("fileCount", count[0]);
+            article.put("files", uploaded);
+            if (count[0] > uploaded.size()) {
+                listener.getLogger().println(String.format("Returning the figshare files of the first %d of %d "
+                        + "files uploaded", uploaded.size(), count[0]));
+            }
+            return article;
+        }
+
+    }
+
+    /**
+     * Step descriptor. Only loaded when the Pipeline plug-ins are installed.
+     *
+     * @author Bruno P. Kinoshita
+     * @since 0.2
+     */
+    @Extension(optional = true)
+    public static class DescriptorImpl extends AbstractStepDescriptorImpl {
+
+        /**
+         * Used internally only.
+         */
+        public DescriptorImpl() {
+            super(Execution.class);
+        }
+
+        /*
+         * (non-Javadoc)
+         * 
+         * @see org.jenkinsci.plugins.workflow.steps.StepDescriptor#
+         * getFunctionName()
+         */
+        @Override
+        public String getFunctionName() {
+            return "figsharePublish";
+        }
+
+        /*
+         * (non-Javadoc)
+         * 
+         * @see hudson.model.Descriptor#getDisplayName()
+         */
+        @Override
+        public String getDisplayName() {
+            return "Publish files to figshare";
+        }
+
+        /**
+         * Used by the UI to fill a combo box with the credentials available to
+         * be used in the job.
+         *
+         * @param context context
+         * @param remoteBase remove base parameter
+         * @return a model for a combo box
+         */
+        public ListBoxModel doFillCredentialsIdItems(@AncestorInPath Item context, @QueryParameter String remoteBase) {
+            if (context == null || !context.hasPermission(Item.CONFIGURE)) {
+                return new StandardListBoxModel();
+            }
+
+            return new StandardListBoxModel().withEmptySelection().withMatching(
+                    CredentialsMatchers.anyOf(CredentialsMatchers.instanceOf(FigShareOauthCredentials.class)),
+                    CredentialsProvider.lookupCredentials(StandardCredentials.class, context, ACL.SYSTEM,
+                            new ArrayList<DomainRequirement>()));
+        }
+
+    }
+
+}
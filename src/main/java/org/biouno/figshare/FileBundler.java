@@ -0,0 +1,217 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2015 Bruno P. Kinoshita, BioUno team
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package org.biouno.figshare;
+
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import java.util.zip.Deflater;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+/**
+ * <p>
+ * Streams small files into zip bundles of a maximum size, handing each bundle
+ * to the {@link FileUploader} as soon as it is full, so that thousands of
+ * small files become a few uploads.
+ * </p>
+ *
+ * <p>
+ * Bundles are written to a temporary directory, one at a time, and each
+ * bundle is deleted as soon as it is uploaded. Files larger than a bundle are
+ * uploaded on their own.
+ * </p>
+ *
+ * <p>
+ * Files in bundles are not hashed, so they are neither recorded nor skipped
+ * when unchanged, as {@link FileUploader} does with files uploaded on their
+ * own.
+ * </p>
+ *
+ * @author Bruno P. Kinoshita
+ * @since 0.2
+ */
+final class FileBundler {
+
+    private static final Logger LOGGER = Logger.getLogger(FileBundler.class.getName());
+
+    /**
+     * Extensions of files that are already compressed.
+     */
+    private static final Set<String> COMPRESSED = new HashSet<String>(Arrays.asList("7z", "bz2", "gif", "gz",
+            "jpeg", "jpg", "mp3", "mp4", "png", "rar", "tgz", "xz", "zip", "zst"));
+
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    private final FileUploader uploader;
+    private final UploadOptions options;
+    private final File directory;
+    private final byte[] buffer = new byte[BUFFER_SIZE];
+
+    private int bundles;
+    private File bundle;
+    private CountingOutputStream counter;
+    private ZipOutputStream zip;
+    private Map<String, File> members;
+
+    /**
+     * @param uploader uploader that receives the bundles
+     * @param options upload options
+     * @throws IOException if the temporary directory cannot be created
+     */
+    FileBundler(FileUploader uploader, UploadOptions options) throws IOException {
+        this.uploader = uploader;
+        this.options = options;
+        this.directory = Files.createTempDirectory("figshare").toFile();
+    }
+
+    /**
+     * Add a file to the current bundle, or upload it on its own if it is
+     * larger than a bundle.
+     *
+     * @param path file path, relative to the workspace
+     * @param file the file
+     * @throws IOException if the bundle cannot be written
+     * @throws InterruptedException if interrupted
+     */
+    void add(String path, File file) throws IOException, InterruptedException {
+        final long size = file.length();
+        if (size >= options.getBundleSize()) {
+            uploader.submit(path, file);
+            return;
+        }
+        if (zip != null && counter.count + size > options.getBundleSize()) {
+            flush();
+        }
+        if (zip == null) {
+            open();
+        }
+        zip.setLevel(options.isSkipCompressedFiles() && isCompressed(path) ? Deflater.NO_COMPRESSION
+                : options.getCompressionLevel());
+        final ZipEntry entry = new ZipEntry(path);
+        entry.setTime(file.lastModified());
+        zip.putNextEntry(entry);
+        final InputStream is = new FileInputStream(file);
+        try {
+            int read;
+            while ((read = is.read(buffer)) != -1) {
+                zip.write(buffer, 0, read);
+            }
+        } finally {
+            is.close();
+        }
+        zip.closeEntry();
+        members.put(path, file);
+    }
+
+    /**
+     * Hand the current bundle, if any, to the uploader.
+     *
+     * @throws IOException if the bundle cannot be written
+     * @throws InterruptedException if interrupted
+     */
+    void flush() throws IOException, InterruptedException {
+        if (zip == null) {
+            return;
+        }
+        zip.close();
+        zip = null;
+        uploader.submitBundle(bundle.getName(), bundle, members);
+    }
+
+    /**
+     * Remove the temporary directory, and any bundle not uploaded.
+     */
+    void close() {
+        if (zip != null) {
+            try {
+                zip.close();
+            } catch (IOException ioe) {
+                LOGGER.log(Level.FINE, "Error closing " + bundle, ioe);
+            }
+            zip = null;
+        }
+        final File[] left = directory.listFiles();
+        if (left != null) {
+            for (File f : left) {
+                if (!f.delete()) {
+                    LOGGER.fine("Could not delete " + f);
+                }
+            }
+        }
+        if (!directory.delete()) {
+            LOGGER.fine("Could not delete " + directory);
+        }
+    }
+
+    private void open() throws IOException {
+        bundle = new File(directory, String.format("bundle-%03d.zip", ++bundles));
+        counter = new CountingOutputStream(new BufferedOutputStream(new FileOutputStream(bundle), BUFFER_SIZE));
+        zip = new ZipOutputStream(counter);
+        members = new LinkedHashMap<String, File>();
+    }
+
+    private static boolean isCompressed(String path) {
+        final int dot = path.lastIndexOf('.');
+        return dot >= 0 && COMPRESSED.contains(path.substring(dot + 1).toLowerCase(Locale.ENGLISH));
+    }
+
+    /**
+     * Counts the bytes written to the bundle.
+     */
+    private static final class CountingOutputStream extends FilterOutputStream {
+        private long count;
+
+        CountingOutputStream(OutputStream out) {
+            super(out);
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            out.write(b);
+            count++;
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            out.write(b, off, len);
+            count += len;
+        }
+    }
+
+}
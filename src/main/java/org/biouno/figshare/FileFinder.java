@@ -0,0 +1,193 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2015 Bruno P. Kinoshita, BioUno team
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package org.biouno.figshare;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.FileVisitOption;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.EnumSet;
+import java.util.List;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import org.apache.tools.ant.DirectoryScanner;
+
+/**
+ * <p>
+ * Finds the files matching an Ant-like pattern in a single walk of the
+ * directory tree, handing each file over as soon as it is found.
+ * </p>
+ *
+ * <p>
+ * Like the Ant file sets used before, Ant default excludes (<code>.git</code>,
+ * <code>.svn</code>, editor backups, etc) are ignored. Directories that cannot
+ * contain a match are not visited.
+ * </p>
+ *
+ * @author Bruno P. Kinoshita
+ * @since 0.2
+ */
+final class FileFinder {
+
+    private static final Logger LOGGER = Logger.getLogger(FileFinder.class.getName());
+
+    /**
+     * Receives the files found.
+     */
+    interface Handler {
+        /**
+         * @param path file path, relative to the base directory and separated
+         *            by <code>/</code>
+         * @param file the file
+         * @throws IOException if the file cannot be handled
+         * @throws InterruptedException if interrupted
+         */
+        void found(String path, File file) throws IOException, InterruptedException;
+    }
+
+    private final List<AntPattern> includes;
+    private final List<AntPattern> excludes = new ArrayList<AntPattern>();
+    /*
+     * Default excludes such as **\/.git/**, matched against the directory.
+     */
+    private final List<AntPattern> excludedDirectories = new ArrayList<AntPattern>();
+
+    /**
+     * @param includes comma separated Ant-like patterns
+     */
+    FileFinder(String includes) {
+        this.includes = AntPattern.compile(includes);
+        for (String exclude : DirectoryScanner.getDefaultExcludes()) {
+            excludes.add(new AntPattern(exclude));
+            if (exclude.endsWith("/**")) {
+                excludedDirectories.add(new AntPattern(exclude.substring(0, exclude.length() - 3)));
+            }
+        }
+    }
+
+    /**
+     * Walk the base directory.
+     *
+     * @param base base directory
+     * @param handler receives every file found
+     * @return number of files found
+     * @throws IOException if the directory cannot be walked, or a file handled
+     * @throws InterruptedException if interrupted
+     */
+    int scan(final File base, final Handler handler) throws IOException, InterruptedException {
+        final Path root = base.toPath();
+        final int[] found = new int[1];
+        try {
+            Files.walkFileTree(root, EnumSet.of(FileVisitOption.FOLLOW_LINKS), Integer.MAX_VALUE,
+                    new SimpleFileVisitor<Path>() {
+                        @Override
+                        public FileVisitResult preVisitDirectory(Path dir, BasicFileAttributes attrs) {
+                            final String path = relativize(root, dir);
+                            return isWanted(path) ? FileVisitResult.CONTINUE : FileVisitResult.SKIP_SUBTREE;
+                        }
+
+                        @Override
+                        public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) throws IOException {
+                            if (!attrs.isRegularFile()) {
+                                return FileVisitResult.CONTINUE;
+                            }
+                            final String path = relativize(root, file);
+                            if (isIncluded(path)) {
+                                found[0]++;
+                                try {
+                                    handler.found(path, file.toFile());
+                                } catch (InterruptedException ie) {
+                                    throw new Interrupted(ie);
+                                }
+                            }
+                            return FileVisitResult.CONTINUE;
+                        }
+
+                        @Override
+                        public FileVisitResult visitFileFailed(Path file, IOException exc) {
+                            // e.g. permission denied, or a symbolic link loop
+                            LOGGER.log(Level.FINE, "Skipping " + file, exc);
+                            return FileVisitResult.CONTINUE;
+                        }
+                    });
+        } catch (Interrupted i) {
+            throw (InterruptedException) i.getCause();
+        }
+        return found[0];
+    }
+
+    private boolean isWanted(String directory) {
+        for (AntPattern exclude : excludedDirectories) {
+            if (exclude.matches(directory)) {
+                return false;
+            }
+        }
+        for (AntPattern include : includes) {
+            if (include.mayMatchUnder(directory)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private boolean isIncluded(String path) {
+        boolean included = false;
+        for (AntPattern include : includes) {
+            if (include.matches(path)) {
+                included = true;
+                break;
+            }
+        }
+        if (included) {
+            for (AntPattern exclude : excludes) {
+                if (exclude.matches(path)) {
+                    return false;
+                }
+            }
+        }
+        return included;
+    }
+
+    private static String relativize(Path root, Path path) {
+        return root.relativize(path).toString().replace(File.separatorChar, '/');
+    }
+
+    /**
+     * Carries an {@link InterruptedException} through the file visitor.
+     */
+    private static final class Interrupted extends IOException {
+        private static final long serialVersionUID = 1L;
+
+        Interrupted(InterruptedException cause) {
+            super(cause);
+        }
+    }
+
+}
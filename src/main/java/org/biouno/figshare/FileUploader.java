@@ -0,0 +1,439 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2015 Bruno P. Kinoshita, BioUno team
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package org.biouno.figshare;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import hudson.AbortException;
+import hudson.util.DaemonThreadFactory;
+import hudson.util.NamingThreadFactory;
+
+/**
+ * Uploads files to a figshare article using a bounded pool of workers.
+ *
+ * <p>
+ * Files are uploaded in parallel, but the console output is printed in the
+ * same order the files were submitted. Failures do not stop the remaining
+ * uploads; they are counted and reported together by
+ * {@link #awaitCompletion()}.
+ * </p>
+ *
+ * <p>
+ * At most {@link #MAX_PENDING} uploads are queued or running at a time.
+ * Submitting more blocks until the oldest upload finishes, so memory does not
+ * grow with the number of files, however many the workspace has.
+ * </p>
+ *
+ * @author Bruno P. Kinoshita
+ * @since 0.2
+ */
+final class FileUploader {
+
+    private static final Logger LOGGER = Logger.getLogger(FileUploader.class.getName());
+
+    /**
+     * Maximum number of uploads queued or running.
+     */
+    static final int MAX_PENDING = Math.max(1, Integer.getInteger(FileUploader.class.getName() + ".maxPending", 1000));
+
+    private final Destination destination;
+    private final long articleId;
+    private final UploadCheckpoint checkpoint;
+    private final Map<String, String> knownDigests;
+    private final PublishResult result;
+    private final UploadStatistics statistics;
+    private final PrintStream ps;
+    private final boolean verify;
+    private final ExecutorService executor;
+    private final ByteRateLimiter limiter;
+    private final UploadProgress progress;
+    private final AdaptiveConcurrency concurrency;
+    private final Deque<Upload> uploads = new ArrayDeque<Upload>();
+    private int total;
+    private int failures;
+
+    /**
+     * Create an uploader.
+     *
+     * @param destination figshare article files are uploaded to
+     * @param articleId article that receives the files
+     * @param options upload options, with the number of concurrent uploads,
+     *            whether it adapts to the throughput, the upload rate and
+     *            whether uploads are verified
+     * @param checkpoint checkpoint updated as files are acknowledged
+     * @param knownDigests digests of content already in figshare, or
+     *            <code>null</code> to upload every file
+     * @param result result updated with the digest of each published file
+     * @param ps job output
+     */
+    FileUploader(Destination destination, long articleId, UploadOptions options, UploadCheckpoint checkpoint,
+            Map<String, String> knownDigests, PublishResult result, PrintStream ps) {
+        this.destination = destination;
+        this.articleId = articleId;
+        this.checkpoint = checkpoint;
+        this.knownDigests = knownDigests;
+        this.result = result;
+        this.statistics = result.getStatistics();
+        this.ps = ps;
+        this.verify = options.isVerifyUploads();
+        this.executor = Executors.newFixedThreadPool(Math.max(1, options.getUploadThreads()),
+                new NamingThreadFactory(new DaemonThreadFactory(), "figshare-upload"));
+        this.limiter = new ByteRateLimiter(options.getMaxBytesPerSecond());
+        this.progress = new UploadProgress(ps);
+        // the pool has room for the maximum, the controller sets how much is used
+        this.concurrency = options.isAdaptiveConcurrency()
+                ? new AdaptiveConcurrency(options.getUploadThreads(), statistics, ps) : null;
+    }
+
+    /**
+     * @param figshare figshare client
+     * @return the articles of the figshare client, as a destination
+     */
+    static Destination to(final FigShareClient figshare) {
+        return new Destination() {
+            @Override
+            public org.biouno.figshare.v1.model.File upload(long articleId, File file) {
+                return figshare.uploadFile(articleId, file);
+            }
+        };
+    }
+
+    /**
+     * Queue a file for upload.
+     *
+     * @param path file path, relative to the workspace
+     * @param file file to be uploaded
+     * @throws InterruptedException if interrupted while waiting for room in
+     *             the queue
+     */
+    void submit(String path, File file) throws InterruptedException {
+        submit(path, file, null, false, null);
+    }
+
+    /**
+     * Queue a file of an article kept up to date. The file is uploaded unless
+     * its digest matches the previous version, and is added to the manifest
+     * of the result either way.
+     *
+     * @param path file path, relative to the workspace
+     * @param file file to be uploaded
+     * @param previous previous version of the file in the article, or
+     *            <code>null</code> for a new file
+     * @throws InterruptedException if interrupted while waiting for room in
+     *             the queue
+     */
+    void update(String path, File file, ArticleManifest.Entry previous) throws InterruptedException {
+        submit(path, file, null, true, previous);
+    }
+
+    /**
+     * Queue a bundle of files for upload. The bundle is deleted once uploaded.
+     *
+     * @param path bundle name
+     * @param bundle bundle to be uploaded
+     * @param members files in the bundle, by path relative to the workspace
+     * @throws InterruptedException if interrupted while waiting for room in
+     *             the queue
+     */
+    void submitBundle(String path, File bundle, Map<String, File> members) throws InterruptedException {
+        submit(path, bundle, members, false, null);
+    }
+
+    private void submit(final String path, final File file, final Map<String, File> members, final boolean tracked,
+            final ArticleManifest.Entry previous) throws InterruptedException {
+        while (uploads.size() >= MAX_PENDING || (!uploads.isEmpty() && uploads.peek().future.isDone())) {
+            report(uploads.poll());
+        }
+        final long submitted = System.currentTimeMillis();
+        final long queued = file.length();
+        progress.queued(queued);
+        Future<Outcome> future = executor.submit(new Callable<Outcome>() {
+            @Override
+            public Outcome call() throws Exception {
+                final long picked = System.currentTimeMillis();
+                long size = file.length();
+                long lastModified = file.lastModified();
+                String digest = null;
+                if ((knownDigests != null || tracked) && members == null) {
+                    // hashed here, so that files are hashed in parallel too
+                    digest = hash(file);
+                }
+                final long hashed = System.currentTimeMillis();
+                if (previous != null && digest.equals(previous.getDigest())) {
+                    // touched, but not modified
+                    result.addManifestEntry(path, new ArticleManifest.Entry(size, lastModified, digest,
+                            previous.getFileId()));
+                    completed(path, file, digest, previous.getFileId());
+                    progress.skipped(queued);
+                    return new Outcome(null, articleId + "/" + previous.getFileId(), null);
+                }
+                if (knownDigests != null && digest != null) {
+                    String published = knownDigests.get(digest);
+                    if (published != null) {
+                        result.addDigest(digest, published);
+                        completed(path, file, digest, null);
+                        progress.skipped(queued);
+                        return new Outcome(null, published, null);
+                    }
+                }
+                // the request alone, without the backoff between attempts
+                final long[] request = new long[2];
+                final long queueWait;
+                boolean acquired = false;
+                org.biouno.figshare.v1.model.File uploaded = null;
+                try {
+                    if (concurrency != null) {
+                        concurrency.acquire();
+                        acquired = true;
+                    }
+                    limiter.acquire(size);
+                    // waiting for a worker, a concurrency slot or the rate budget
+                    queueWait = picked - submitted + System.currentTimeMillis() - hashed;
+                    progress.started(path, queued);
+                    for (int attempt = 1;; attempt++) {
+                        final UploadVerifier verifier = verify ? new UploadVerifier(file) : null;
+                        if (attempt > 1 && digest != null && members == null) {
+                            // the file may have changed since it was hashed
+                            digest = hash(file);
+                        }
+                        uploaded = RequestScheduler.get().call("Upload of " + path,
+                                new Callable<org.biouno.figshare.v1.model.File>() {
+                                    @Override
+                                    public org.biouno.figshare.v1.model.File call() throws Exception {
+                                        request[0] = System.currentTimeMillis();
+                                        try {
+                                            return destination.upload(articleId, file);
+                                        } finally {
+                                            request[1] = System.currentTimeMillis();
+                                        }
+                                    }
+                                }, ps, statistics);
+                        final String problem = verifier != null ? verifier.verify(uploaded.getSize()) : null;
+                        if (problem == null) {
+                            if (verifier != null) {
+                                size = verifier.getSize();
+                                lastModified = verifier.getLastModified();
+                                if (!verifier.isSizeChecked()) {
+                                    ps.println(String.format("Could not read the size figshare reports for %s, %s; "
+                                            + "only checked that the file did not change while it was uploaded",
+                                            path, uploaded.getSize()));
+                                }
+                            }
+                            break;
+                        }
+                        final Long incomplete = uploaded.getId();
+                        uploaded = null;
+                        if (attempt >= UploadVerifier.MAX_ATTEMPTS) {
+                            throw new IOException(String.format("Upload of %s failed verification %d time(s): %s. "
+                                    + "Delete the incomplete figshare file %s from article %d", path, attempt,
+                                    problem, incomplete, articleId));
+                        }
+                        statistics.retried();
+                        ps.println(String.format("Upload of %s failed verification (%s), uploading it again. Delete "
+                                + "the incomplete figshare file %s from article %d", path, problem, incomplete,
+                                articleId));
+                    }
+                } finally {
+                    progress.finished(path, queued, uploaded != null);
+                    if (acquired) {
+                        concurrency.release(uploaded != null ? size : 0, uploaded == null);
+                    }
+                }
+                statistics.uploaded(size, queueWait, request[0], request[1]);
+                result.addFile(path, String.valueOf(uploaded.getId()));
+                if (tracked) {
+                    result.addManifestEntry(path, new ArticleManifest.Entry(size, lastModified, digest,
+                            String.valueOf(uploaded.getId())));
+                }
+                if (members == null) {
+                    completed(path, file, digest, String.valueOf(uploaded.getId()));
+                } else {
+                    for (Map.Entry<String, File> member : members.entrySet()) {
+                        completed(member.getKey(), member.getValue(), null, null);
+                    }
+                    if (!file.delete()) {
+                        LOGGER.fine("Could not delete " + file);
+                    }
+                }
+                if (digest != null) {
+                    result.addDigest(digest, articleId + "/" + uploaded.getId());
+                }
+                return new Outcome(uploaded, null, previous != null ? previous.getFileId() : null);
+            }
+        });
+        uploads.add(new Upload(file, members != null ? members.size() : 0, future));
+        total++;
+    }
+
+    /**
+     * Record a file that is now in the article, in the checkpoint and in the
+     * result.
+     *
+     * @param path file path, relative to the workspace
+     * @param file the file
+     * @param digest SHA-256 digest of the file, or <code>null</code> if it was
+     *            not hashed
+     * @param fileId figshare file ID, or <code>null</code> if unknown
+     * @throws IOException if the file cannot be recorded
+     */
+    private void completed(String path, File file, String digest, String fileId) throws IOException {
+        checkpoint.completed(path, file, digest, fileId);
+        result.addCompleted(path);
+    }
+
+    /**
+     * @param file file to hash
+     * @return the SHA-256 digest of the file
+     * @throws IOException if the file cannot be read
+     */
+    private String hash(File file) throws IOException {
+        final long start = System.currentTimeMillis();
+        final String digest = Digests.sha256(file);
+        statistics.hashed(file.length(), System.currentTimeMillis() - start);
+        return digest;
+    }
+
+    /**
+     * Wait for every queued upload, printing the result of each file in the
+     * order it was submitted.
+     *
+     * @return number of files processed
+     * @throws AbortException if one or more files could not be uploaded
+     * @throws InterruptedException if interrupted while waiting
+     */
+    int awaitCompletion() throws AbortException, InterruptedException {
+        try {
+            while (!uploads.isEmpty()) {
+                report(uploads.poll());
+            }
+        } finally {
+            executor.shutdownNow();
+            progress.close();
+        }
+        if (failures > 0) {
+            throw new AbortException(String.format("%d of %d files failed to upload to figshare article %d",
+                    failures, total, articleId));
+        }
+        return total;
+    }
+
+    /**
+     * Wait for an upload, and print its result.
+     *
+     * @param upload the upload
+     * @throws InterruptedException if interrupted while waiting
+     */
+    private void report(Upload upload) throws InterruptedException {
+        try {
+            Outcome outcome = upload.future.get();
+            if (outcome.uploaded != null) {
+                org.biouno.figshare.v1.model.File uploaded = outcome.uploaded;
+                ps.println(String.format("File %s/%s uploaded as %s to article %d", uploaded.getName(),
+                        uploaded.getSize(), uploaded.getMimeType(), articleId));
+                if (upload.members > 0) {
+                    ps.println(String.format("Bundle %s holds %d files", upload.file.getName(), upload.members));
+                }
+                if (outcome.replaced != null) {
+                    ps.println(String.format("Previous version of %s is still figshare file %s in article "
+                            + "%d, delete it there if no longer needed", upload.file.getName(), outcome.replaced,
+                            articleId));
+                }
+            } else {
+                ps.println(String.format("File %s unchanged, already published as figshare file %s",
+                        upload.file.getName(), outcome.published));
+            }
+        } catch (ExecutionException ee) {
+            Throwable cause = ee.getCause() != null ? ee.getCause() : ee;
+            LOGGER.log(Level.WARNING, "Error uploading " + upload.file, cause);
+            ps.println(String.format("Failed to upload %s: %s", upload.file.getName(), cause.getMessage()));
+            failures++;
+        }
+    }
+
+    /**
+     * Stop the workers, cancelling any upload still running.
+     */
+    void close() {
+        executor.shutdownNow();
+        progress.close();
+    }
+
+    /**
+     * Receives the uploaded files: figshare, or a stand-in for it in tests
+     * and benchmarks.
+     */
+    interface Destination {
+        /**
+         * @param articleId article that receives the file
+         * @param file file to upload
+         * @return the figshare file created
+         * @throws Exception if the file cannot be uploaded
+         */
+        org.biouno.figshare.v1.model.File upload(long articleId, File file) throws Exception;
+    }
+
+    /**
+     * A file and its pending upload.
+     */
+    private static final class Upload {
+        private final File file;
+        private final int members;
+        private final Future<Outcome> future;
+
+        Upload(File file, int members, Future<Outcome> future) {
+            this.file = file;
+            this.members = members;
+            this.future = future;
+        }
+    }
+
+    /**
+     * Either the file uploaded, and the figshare file with its previous
+     * version if any, or the figshare file that already had the same content.
+     */
+    private static final class Outcome {
+        private final org.biouno.figshare.v1.model.File uploaded;
+        private final String published;
+        private final String replaced;
+
+        Outcome(org.biouno.figshare.v1.model.File uploaded, String published, String replaced) {
+            this.uploaded = uploaded;
+            this.published = published;
+            this.replaced = replaced;
+        }
+    }
+
+}
@@ -0,0 +1,98 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2015 Bruno P. Kinoshita, BioUno team
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package org.biouno.figshare;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.logging.Logger;
+
+/**
+ * <p>
+ * Files the plug-in keeps in the job root directory, such as the index of
+ * published content and the article manifests.
+ * </p>
+ *
+ * <p>
+ * Builds of a job, and parallel branches of a build, may update the same file
+ * at the same time. Each file has one lock in this JVM, held while it is read,
+ * merged and written again, and every write goes to a temporary file of its
+ * own that then replaces the file.
+ * </p>
+ *
+ * @author Bruno P. Kinoshita
+ * @since 0.2
+ */
+final class JobFiles {
+
+    private static final Logger LOGGER = Logger.getLogger(JobFiles.class.getName());
+
+    private static final ConcurrentMap<String, Object> LOCKS = new ConcurrentHashMap<String, Object>();
+
+    private JobFiles() {
+    }
+
+    /**
+     * @param file a file in a job directory
+     * @return the lock of the file, the same for every instance reading or
+     *         writing it
+     */
+    static Object lock(File file) {
+        final String key = file.getAbsolutePath();
+        final Object lock = new Object();
+        final Object previous = LOCKS.putIfAbsent(key, lock);
+        return previous != null ? previous : lock;
+    }
+
+    /**
+     * @param file a file in a job directory
+     * @return a new temporary file, in the same directory, to write the new
+     *         content of the file to
+     * @throws IOException if the temporary file cannot be created
+     */
+    static File createTemp(File file) throws IOException {
+        return File.createTempFile(file.getName(), ".tmp", file.getParentFile());
+    }
+
+    /**
+     * Replace a file with the temporary file holding its new content.
+     *
+     * @param tmp the temporary file
+     * @param file the file
+     * @throws IOException if the file cannot be replaced
+     */
+    static void replace(File tmp, File file) throws IOException {
+        if (tmp.renameTo(file)) {
+            return;
+        }
+        if (!(file.delete() && tmp.renameTo(file))) {
+            if (!tmp.delete()) {
+                LOGGER.fine("Could not delete " + tmp);
+            }
+            throw new IOException("Could not replace " + file);
+        }
+    }
+
+}
@@ -0,0 +1,328 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2015 Bruno P. Kinoshita, BioUno team
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package org.biouno.figshare;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.util.Arrays;
+import java.util.logging.Logger;
+
+/**
+ * <p>
+ * Index, by path, of a file of lines in the format of the
+ * {@link ArticleManifest}, after a header line:
+ * </p>
+ *
+ * <pre>
+ * &lt;size&gt; &lt;mtime&gt; &lt;sha256&gt; &lt;fileId&gt; &lt;path&gt;
+ * </pre>
+ *
+ * <p>
+ * The index is a sorted array of one <code>long</code> per line, holding a
+ * hash of the path and the position of the line, which is read again when the
+ * path is looked up. Its memory is 8 bytes per line, whatever the length of
+ * the paths, and the lines themselves stay on disk. When a path has several
+ * lines, the last one is the valid one.
+ * </p>
+ *
+ * @author Bruno P. Kinoshita
+ * @since 0.2
+ */
+final class PathIndex {
+
+    private static final Logger LOGGER = Logger.getLogger(PathIndex.class.getName());
+
+    private static final String UNKNOWN = "-";
+
+    /*
+     * Bits of an index entry holding the position of the line in the file,
+     * the others holding the hash of the path.
+     */
+    private static final int POSITION_BITS = 36;
+    private static final long POSITION_MASK = (1L << POSITION_BITS) - 1;
+
+    private final File file;
+    private String header;
+    private long[] entries = new long[0];
+    private int count;
+    private RandomAccessFile lines;
+
+    private PathIndex(File file) {
+        this.file = file;
+    }
+
+    /**
+     * @return an index without lines
+     */
+    static PathIndex empty() {
+        return new PathIndex(null);
+    }
+
+    /**
+     * Index the lines of a file. A last line without a line feed, not
+     * completely written, is ignored.
+     *
+     * @param file the file
+     * @return the index of the file
+     * @throws IOException if the file cannot be read
+     */
+    static PathIndex load(File file) throws IOException {
+        final PathIndex index = new PathIndex(file);
+        final InputStream in = new BufferedInputStream(new FileInputStream(file));
+        try {
+            final ByteArrayOutputStream line = new ByteArrayOutputStream(256);
+            long read = readLine(in, line);
+            if (read < 0) {
+                return index;
+            }
+            index.header = line.toString("UTF-8");
+            long position = read;
+            while ((read = readLine(in, line)) >= 0) {
+                final String[] entry = line.toString("UTF-8").split(" ", 5);
+                if (entry.length == 5) {
+                    if (position > POSITION_MASK) {
+                        LOGGER.warning("Ignoring the end of " + file);
+                        break;
+                    }
+                    if (index.count == index.entries.length) {
+                        index.entries = Arrays.copyOf(index.entries, Math.max(1024, index.count * 2));
+                    }
+                    index.entries[index.count++] = hash(entry[4]) << POSITION_BITS | position;
+                }
+                position += read;
+            }
+        } finally {
+            in.close();
+        }
+        // the lines of a path are sorted by position, the last one is valid
+        Arrays.sort(index.entries, 0, index.count);
+        return index;
+    }
+
+    /**
+     * @param in the file
+     * @param line buffer receiving the line, without the line feed
+     * @return the number of bytes read, including the line feed, or -1 at
+     *         the end of the file
+     * @throws IOException if the file cannot be read
+     */
+    private static long readLine(InputStream in, ByteArrayOutputStream line) throws IOException {
+        line.reset();
+        long read = 0;
+        int b;
+        while ((b = in.read()) >= 0) {
+            read++;
+            if (b == '\n') {
+                return read;
+            }
+            line.write(b);
+        }
+        return -1;
+    }
+
+    /**
+     * @param path file path
+     * @return a hash of the path, in the bits of an index entry not used by
+     *         the position
+     */
+    private static long hash(String path) {
+        return fingerprint(path) >>> POSITION_BITS;
+    }
+
+    /**
+     * @param path file path
+     * @return a 64-bit hash of the path, the same in every JVM
+     */
+    static long fingerprint(String path) {
+        // FNV-1a
+        long hash = 0xcbf29ce484222325L;
+        for (int i = 0; i < path.length(); i++) {
+            hash ^= path.charAt(i);
+            hash *= 0x100000001b3L;
+        }
+        return hash;
+    }
+
+    /**
+     * Format a line of the file.
+     *
+     * @param path file path
+     * @param entry the file
+     * @return the line, without the line feed
+     */
+    static String format(String path, ArticleManifest.Entry entry) {
+        return entry.getSize() + " " + entry.getLastModified() + " "
+                + (entry.getDigest() != null ? entry.getDigest() : UNKNOWN) + " "
+                + (entry.getFileId() != null ? entry.getFileId() : UNKNOWN) + " " + path;
+    }
+
+    /**
+     * @return the first line of the file, or <code>null</code> if empty
+     */
+    String getHeader() {
+        return header;
+    }
+
+    /**
+     * @return number of lines indexed
+     */
+    int size() {
+        return count;
+    }
+
+    /**
+     * @param path file path
+     * @return the index of the last line of the path, or -1 if it has none
+     * @throws IOException if the file cannot be read
+     */
+    synchronized int indexOf(String path) throws IOException {
+        final long hash = hash(path);
+        int i = Arrays.binarySearch(entries, 0, count, hash << POSITION_BITS);
+        if (i < 0) {
+            i = -i - 1;
+        }
+        int last = -1;
+        for (; i < count && entries[i] >>> POSITION_BITS == hash; i++) {
+            if (path.equals(path(readLine(entries[i] & POSITION_MASK)))) {
+                last = i;
+            }
+        }
+        return last;
+    }
+
+    /**
+     * @param path file path
+     * @return the last line of the path, or <code>null</code> if it has none
+     * @throws IOException if the file cannot be read
+     */
+    ArticleManifest.Entry get(String path) throws IOException {
+        final int i = indexOf(path);
+        return i >= 0 ? getEntry(i) : null;
+    }
+
+    /**
+     * @param i index of a line, from 0 to {@link #size()}
+     * @return the path of the line
+     * @throws IOException if the file cannot be read
+     */
+    synchronized String getPath(int i) throws IOException {
+        return path(readLine(entries[i] & POSITION_MASK));
+    }
+
+    /**
+     * @param i index of a line, from 0 to {@link #size()}
+     * @return the file of the line
+     * @throws IOException if the file cannot be read
+     */
+    synchronized ArticleManifest.Entry getEntry(int i) throws IOException {
+        final String[] entry = readLine(entries[i] & POSITION_MASK).split(" ", 5);
+        try {
+            return new ArticleManifest.Entry(Long.parseLong(entry[0]), Long.parseLong(entry[1]), known(entry[2]),
+                    known(entry[3]));
+        } catch (NumberFormatException nfe) {
+            throw new IOException("Invalid entry in " + file + ": " + Arrays.toString(entry), nfe);
+        }
+    }
+
+    /**
+     * @param i index of a line, from 0 to {@link #size()}
+     * @return whether the line is the last one of its path
+     * @throws IOException if the file cannot be read
+     */
+    synchronized boolean isLast(int i) throws IOException {
+        final long hash = entries[i] >>> POSITION_BITS;
+        if (i + 1 >= count || entries[i + 1] >>> POSITION_BITS != hash) {
+            return true;
+        }
+        return indexOf(getPath(i)) == i;
+    }
+
+    private static String path(String line) {
+        final String[] entry = line.split(" ", 5);
+        return entry.length == 5 ? entry[4] : null;
+    }
+
+    private static String known(String value) {
+        return UNKNOWN.equals(value) ? null : value;
+    }
+
+    /**
+     * @param position position of a line in the file
+     * @return the line
+     * @throws IOException if the file cannot be read
+     */
+    private String readLine(long position) throws IOException {
+        if (lines == null) {
+            lines = new RandomAccessFile(file, "r");
+        }
+        lines.seek(position);
+        final ByteArrayOutputStream line = new ByteArrayOutputStream(256);
+        final byte[] buffer = new byte[256];
+        int read;
+        while ((read = lines.read(buffer)) > 0) {
+            for (int i = 0; i < read; i++) {
+                if (buffer[i] == '\n') {
+                    line.write(buffer, 0, i);
+                    return line.toString("UTF-8");
+                }
+            }
+            line.write(buffer, 0, read);
+        }
+        return line.toString("UTF-8");
+    }
+
+    /**
+     * Close and delete the file indexed.
+     *
+     * @throws IOException if the file cannot be closed
+     */
+    void delete() throws IOException {
+        close();
+        if (file != null && file.exists() && !file.delete()) {
+            LOGGER.fine("Could not delete " + file);
+        }
+    }
+
+    /**
+     * Close the file, keeping the index. The file is opened again by the next
+     * lookup.
+     *
+     * @throws IOException if the file cannot be closed
+     */
+    synchronized void close() throws IOException {
+        if (lines != null) {
+            try {
+                lines.close();
+            } finally {
+                lines = null;
+            }
+        }
+    }
+
+}
@@ -0,0 +1,62 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2015 Bruno P. Kinoshita, BioUno team
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package org.biouno.figshare;
+
+/**
+ * Priority class of a publication. When publications wait for the
+ * {@link PublishScheduler}, higher classes start first, e.g. releases before
+ * nightly bulk data.
+ *
+ * @author Bruno P. Kinoshita
+ * @since 0.2
+ */
+public enum PublishPriority {
+
+    /**
+     * Urgent publications, such as releases.
+     */
+    HIGH("High"),
+    /**
+     * The default.
+     */
+    NORMAL("Normal"),
+    /**
+     * Publications that can wait, such as nightly bulk data.
+     */
+    LOW("Low");
+
+    private final String displayName;
+
+    private PublishPriority(String displayName) {
+        this.displayName = displayName;
+    }
+
+    /**
+     * @return name shown in the job configuration
+     */
+    public String getDisplayName() {
+        return displayName;
+    }
+
+}
@@ -0,0 +1,62 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2015 Bruno P. Kinoshita, BioUno team
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package org.biouno.figshare;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import hudson.util.DaemonThreadFactory;
+import hudson.util.NamingThreadFactory;
+
+/**
+ * Master side queue of publications running in the background, after their
+ * builds have finished. At most {@link #THREADS} publications run at the same
+ * time.
+ *
+ * @author Bruno P. Kinoshita
+ * @since 0.2
+ */
+final class PublishQueue {
+
+    /**
+     * Maximum number of background publications running at the same time.
+     */
+    static final int THREADS = Math.max(1, Integer.getInteger(PublishQueue.class.getName() + ".threads", 2));
+
+    private static final ExecutorService EXECUTOR = Executors.newFixedThreadPool(THREADS,
+            new NamingThreadFactory(new DaemonThreadFactory(), "figshare-publish"));
+
+    private PublishQueue() {
+    }
+
+    /**
+     * Queue a publication.
+     *
+     * @param publication publication to run in the background
+     */
+    static void submit(Runnable publication) {
+        EXECUTOR.submit(publication);
+    }
+
+}
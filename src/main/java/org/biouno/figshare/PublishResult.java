@@ -0,0 +1,406 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2015 Bruno P. Kinoshita, BioUno team
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package org.biouno.figshare;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Serializable;
+import java.io.Writer;
+import java.nio.charset.Charset;
+import java.util.logging.Logger;
+
+import hudson.FilePath;
+import hudson.remoting.VirtualChannel;
+
+/**
+ * <p>
+ * Outcome of publishing files to figshare, sent back from the agent.
+ * </p>
+ *
+ * <p>
+ * What was published for each file is written to a records file in the node
+ * as the files are uploaded, so that neither the node nor the master keep it
+ * in memory, and the result sent back only holds the article, the statistics
+ * and the path of the records. The master then reads the records, one at a
+ * time, with {@link #read(VirtualChannel, Records)}. Each line of the records
+ * file is one of:
+ * </p>
+ *
+ * <pre>
+ * F &lt;fileId&gt; &lt;path&gt;
+ * D &lt;sha256&gt; &lt;articleId/fileId&gt;
+ * M &lt;size&gt; &lt;mtime&gt; &lt;sha256&gt; &lt;fileId&gt; &lt;path&gt;
+ * C &lt;path&gt;
+ * R &lt;path&gt;
+ * </pre>
+ *
+ * @author Bruno P. Kinoshita
+ * @since 0.2
+ */
+final class PublishResult implements Serializable {
+
+    private static final Logger LOGGER = Logger.getLogger(PublishResult.class.getName());
+
+    /*
+     * Serial UID.
+     */
+    private static final long serialVersionUID = -2296016153780436514L;
+
+    private static final String UNKNOWN = "-";
+
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+
+    private final long articleId;
+    private final UploadStatistics statistics;
+    private final String records;
+    private transient Writer writer;
+
+    /**
+     * Result of a publication in this node.
+     *
+     * @param articleId figshare article ID
+     * @param statistics publication statistics
+     * @throws IOException if the records file cannot be created
+     */
+    PublishResult(long articleId, UploadStatistics statistics) throws IOException {
+        this.articleId = articleId;
+        this.statistics = statistics;
+        final File file = File.createTempFile("figshare-result-", ".txt");
+        this.records = file.getAbsolutePath();
+        this.writer = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(file), UTF8));
+    }
+
+    private PublishResult(long articleId, UploadStatistics statistics, String records) {
+        this.articleId = articleId;
+        this.statistics = statistics;
+        this.records = records;
+    }
+
+    /**
+     * @param articleId figshare article ID
+     * @param statistics publication statistics
+     * @return a result without records, like the merged result of the shards
+     *         of a publication, whose records were already read
+     */
+    static PublishResult of(long articleId, UploadStatistics statistics) {
+        return new PublishResult(articleId, statistics, null);
+    }
+
+    /**
+     * @return the figshare article ID
+     */
+    long getArticleId() {
+        return articleId;
+    }
+
+    /**
+     * @return publication statistics
+     */
+    UploadStatistics getStatistics() {
+        return statistics;
+    }
+
+    /**
+     * Record the figshare file that holds content published.
+     *
+     * @param digest SHA-256 digest of the content
+     * @param figshareFile figshare file (<code>articleId/fileId</code>)
+     * @throws IOException if the record cannot be written
+     */
+    void addDigest(String digest, String figshareFile) throws IOException {
+        write("D " + digest + " " + figshareFile);
+    }
+
+    /**
+     * Record a figshare file uploaded.
+     *
+     * @param path file path relative to the workspace, or bundle name
+     * @param fileId figshare file ID
+     * @throws IOException if the record cannot be written
+     */
+    void addFile(String path, String fileId) throws IOException {
+        write("F " + fileId + " " + path);
+    }
+
+    /**
+     * Record a file in the article after an update.
+     *
+     * @param path file path relative to the workspace
+     * @param entry the file in the article
+     * @throws IOException if the record cannot be written
+     */
+    void addManifestEntry(String path, ArticleManifest.Entry entry) throws IOException {
+        write("M " + entry.getSize() + " " + entry.getLastModified() + " "
+                + (entry.getDigest() != null ? entry.getDigest() : UNKNOWN) + " "
+                + (entry.getFileId() != null ? entry.getFileId() : UNKNOWN) + " " + path);
+    }
+
+    /**
+     * Record a file that is in the article: uploaded by this publication or
+     * by the interrupted one it resumes, or already published.
+     *
+     * @param path file path relative to the workspace
+     * @throws IOException if the record cannot be written
+     */
+    void addCompleted(String path) throws IOException {
+        write("C " + path);
+    }
+
+    /**
+     * Record a file removed from the workspace, already reported, to be
+     * dropped from the article manifest.
+     *
+     * @param path file path relative to the workspace
+     * @throws IOException if the record cannot be written
+     */
+    void addRemoved(String path) throws IOException {
+        write("R " + path);
+    }
+
+    private synchronized void write(String record) throws IOException {
+        if (writer == null) {
+            throw new IOException("The figshare publication result is closed");
+        }
+        writer.write(record);
+        writer.write('\n');
+    }
+
+    /**
+     * Stop recording, before the result is sent back.
+     *
+     * @throws IOException if the records file cannot be written
+     */
+    synchronized void close() throws IOException {
+        if (writer != null) {
+            try {
+                writer.close();
+            } finally {
+                writer = null;
+            }
+        }
+    }
+
+    /**
+     * Stop recording when the publication failed, keeping the records of the
+     * files published so far to be sent back with the failure.
+     *
+     * @param cause why the publication failed
+     * @return the failure, to be thrown
+     */
+    IncompleteException incomplete(Exception cause) {
+        try {
+            close();
+        } catch (IOException ioe) {
+            LOGGER.fine("Error closing figshare result " + records + ": " + ioe);
+        }
+        return new IncompleteException(this, cause);
+    }
+
+    /**
+     * Remove the records, when the publication failed before it could be
+     * recorded.
+     */
+    void discard() {
+        try {
+            close();
+        } catch (IOException ioe) {
+            LOGGER.fine("Error closing figshare result " + records + ": " + ioe);
+        }
+        if (records != null && !new File(records).delete()) {
+            LOGGER.fine("Could not delete " + records);
+        }
+    }
+
+    /**
+     * Read the records, from the node that published the files, and remove
+     * them.
+     *
+     * @param channel channel of the node that published the files
+     * @param handler receives the records
+     * @throws IOException if the records cannot be read
+     * @throws InterruptedException if interrupted
+     */
+    void read(VirtualChannel channel, Records handler) throws IOException, InterruptedException {
+        if (records == null) {
+            return;
+        }
+        final FilePath file = new FilePath(channel, records);
+        try {
+            final BufferedReader reader = new BufferedReader(new InputStreamReader(file.read(), UTF8));
+            try {
+                String line;
+                while ((line = reader.readLine()) != null) {
+                    read(line, handler);
+                }
+            } finally {
+                reader.close();
+            }
+        } finally {
+            file.delete();
+        }
+    }
+
+    private static void read(String line, Records handler) throws IOException {
+        if (line.startsWith("C ")) {
+            handler.completed(line.substring(2));
+            return;
+        }
+        if (line.startsWith("R ")) {
+            handler.removed(line.substring(2));
+            return;
+        }
+        final String[] record = line.split(" ", line.startsWith("M ") ? 6 : 3);
+        try {
+            if ("F".equals(record[0]) && record.length == 3) {
+                handler.file(record[2], record[1]);
+            } else if ("D".equals(record[0]) && record.length == 3) {
+                handler.digest(record[1], record[2]);
+            } else if ("M".equals(record[0]) && record.length == 6) {
+                handler.manifestEntry(record[5], new ArticleManifest.Entry(Long.parseLong(record[1]),
+                        Long.parseLong(record[2]), known(record[3]), known(record[4])));
+            } else {
+                throw new IOException("Invalid figshare result record: " + line);
+            }
+        } catch (NumberFormatException nfe) {
+            throw new IOException("Invalid figshare result record: " + line, nfe);
+        }
+    }
+
+    private static String known(String value) {
+        return UNKNOWN.equals(value) ? null : value;
+    }
+
+    /**
+     * Failure of a publication, with the result of the files published before
+     * it failed, so that the master records their digests and does not upload
+     * them again.
+     */
+    static final class IncompleteException extends IOException {
+
+        /*
+         * Serial UID.
+         */
+        private static final long serialVersionUID = -6170413420981577407L;
+
+        private final PublishResult result;
+
+        /**
+         * @param result records of the files published before the failure
+         * @param cause why the publication failed
+         */
+        IncompleteException(PublishResult result, Exception cause) {
+            super(cause.getMessage(), cause);
+            this.result = result;
+        }
+
+        /**
+         * @return records of the files published before the failure
+         */
+        PublishResult getResult() {
+            return result;
+        }
+
+        /**
+         * @return why the publication failed, to be thrown once the records
+         *         were read
+         */
+        IOException getFailure() {
+            return getCause() instanceof IOException ? (IOException) getCause() : this;
+        }
+
+    }
+
+    /**
+     * Receives the records of a publication, one at a time. Every method does
+     * nothing, to be overridden for the records of interest.
+     */
+    abstract static class Records {
+
+        /**
+         * @param records receives the records kept
+         * @return the records kept from a publication that failed: the
+         *         digests of the files uploaded, and the files in the article
+         *         kept up to date
+         */
+        static Records kept(final Records records) {
+            return new Records() {
+                @Override
+                void digest(String digest, String figshareFile) throws IOException {
+                    records.digest(digest, figshareFile);
+                }
+
+                @Override
+                void manifestEntry(String path, ArticleManifest.Entry entry) throws IOException {
+                    records.manifestEntry(path, entry);
+                }
+            };
+        }
+
+        /**
+         * @param path file path relative to the workspace, or bundle name
+         * @param fileId figshare file ID
+         * @throws IOException if the record cannot be handled
+         */
+        void file(String path, String fileId) throws IOException {
+        }
+
+        /**
+         * @param digest SHA-256 digest of the content
+         * @param figshareFile figshare file (<code>articleId/fileId</code>)
+         * @throws IOException if the record cannot be handled
+         */
+        void digest(String digest, String figshareFile) throws IOException {
+        }
+
+        /**
+         * @param path file path relative to the workspace
+         * @param entry the file in the article after an update
+         * @throws IOException if the record cannot be handled
+         */
+        void manifestEntry(String path, ArticleManifest.Entry entry) throws IOException {
+        }
+
+        /**
+         * @param path file path relative to the workspace, in the article
+         * @throws IOException if the record cannot be handled
+         */
+        void completed(String path) throws IOException {
+        }
+
+        /**
+         * @param path file path relative to the workspace, removed from the
+         *            workspace and to be dropped from the article manifest
+         * @throws IOException if the record cannot be handled
+         */
+        void removed(String path) throws IOException {
+        }
+
+    }
+
+}
@@ -0,0 +1,262 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2015 Bruno P. Kinoshita, BioUno team
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package org.biouno.figshare;
+
+import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * <p>
+ * Master side admission control of the publications, so that many builds
+ * finishing at once do not all upload at the same time, saturating the
+ * uplink.
+ * </p>
+ *
+ * <p>
+ * A publication waits for a slot before sending the files to figshare. At
+ * most a number of publications run at the same time, in total and per
+ * credential. Waiting publications start by {@link PublishPriority}, then in
+ * arrival order; a publication whose credential is at its limit lets the next
+ * ones go first. The byte rate budget requires a maximum number of
+ * publications: each running publication gets that fraction of it, whatever
+ * the number running, so that together they never exceed the budget. Its node
+ * enforces the share with a {@link ByteRateLimiter}.
+ * </p>
+ *
+ * @author Bruno P. Kinoshita
+ * @since 0.2
+ */
+final class PublishScheduler {
+
+    private static final Logger LOGGER = Logger.getLogger(PublishScheduler.class.getName());
+
+    private static final PublishScheduler INSTANCE = new PublishScheduler();
+
+    private final List<Slot> waiting = new ArrayList<Slot>();
+    private final List<Slot> running = new ArrayList<Slot>();
+    private final Map<String, Integer> runningByCredential = new HashMap<String, Integer>();
+    private int maxPublications;
+    private int maxPerCredential;
+    private long admitted;
+    private long totalWaitMillis;
+    private long maxWaitMillis;
+
+    private PublishScheduler() {
+    }
+
+    /**
+     * @return the scheduler of this master
+     */
+    static PublishScheduler get() {
+        return INSTANCE;
+    }
+
+    /**
+     * Wait for a slot to publish.
+     *
+     * @param job full name of the job publishing
+     * @param credentialsId figshare credential ID
+     * @param priority priority class
+     * @param limits global settings with the limits to apply
+     * @param logger output of the publication
+     * @return the slot, to be released once the files are published
+     * @throws InterruptedException if interrupted while waiting
+     */
+    synchronized Slot acquire(String job, String credentialsId, PublishPriority priority,
+            FigShareNotifier.DescriptorImpl limits, PrintStream logger) throws InterruptedException {
+        maxPublications = limits.getMaxPublications();
+        maxPerCredential = limits.getMaxPublicationsPerCredential();
+        final Slot slot = new Slot(job, credentialsId, priority);
+        int position = 0;
+        while (position < waiting.size() && waiting.get(position).priority.compareTo(priority) <= 0) {
+            position++;
+        }
+        waiting.add(position, slot);
+        try {
+            if (next() != slot) {
+                logger.println(String.format("Waiting for a figshare publication slot, %d publication(s) running, "
+                        + "%d ahead", running.size(), position));
+                do {
+                    wait();
+                } while (next() != slot);
+            }
+        } catch (InterruptedException ie) {
+            waiting.remove(slot);
+            notifyAll();
+            throw ie;
+        }
+        waiting.remove(slot);
+        slot.started = System.currentTimeMillis();
+        running.add(slot);
+        runningByCredential.put(credentialsId, running(credentialsId) + 1);
+        final long waited = slot.started - slot.queued;
+        admitted++;
+        totalWaitMillis += waited;
+        maxWaitMillis = Math.max(maxWaitMillis, waited);
+        final long budget = limits.getMaxBytesPerSecond();
+        if (budget > 0 && maxPublications > 0) {
+            slot.bytesPerSecond = Math.max(1, budget / maxPublications);
+        } else if (budget > 0) {
+            // the shares of running publications cannot be reduced as others
+            // start, so without a maximum the budget could not be enforced
+            logger.println("The figshare upload rate budget is not applied, as there is no maximum number of "
+                    + "publications to share it among");
+        }
+        if (LOGGER.isLoggable(Level.FINE)) {
+            LOGGER.log(Level.FINE, String.format("%s starts publishing after %d ms, %d running, %d waiting", job,
+                    waited, running.size(), waiting.size()));
+        }
+        // others may start too, if this one was blocking the head of the queue
+        notifyAll();
+        return slot;
+    }
+
+    /**
+     * @return the first waiting publication that can start, or
+     *         <code>null</code>
+     */
+    private Slot next() {
+        if (maxPublications > 0 && running.size() >= maxPublications) {
+            return null;
+        }
+        for (Slot slot : waiting) {
+            if (maxPerCredential <= 0 || running(slot.credentialsId) < maxPerCredential) {
+                return slot;
+            }
+        }
+        return null;
+    }
+
+    private int running(String credentialsId) {
+        Integer count = runningByCredential.get(credentialsId);
+        return count != null ? count : 0;
+    }
+
+    private synchronized void release(Slot slot) {
+        if (running.remove(slot)) {
+            final int count = running(slot.credentialsId) - 1;
+            if (count > 0) {
+                runningByCredential.put(slot.credentialsId, count);
+            } else {
+                runningByCredential.remove(slot.credentialsId);
+            }
+            notifyAll();
+        }
+    }
+
+    /**
+     * @return the waiting publications, in the order they will start
+     */
+    synchronized List<Slot> getWaiting() {
+        return new ArrayList<Slot>(waiting);
+    }
+
+    /**
+     * @return the running publications
+     */
+    synchronized List<Slot> getRunning() {
+        return new ArrayList<Slot>(running);
+    }
+
+    /**
+     * @return number of publications started since Jenkins started
+     */
+    synchronized long getAdmitted() {
+        return admitted;
+    }
+
+    /**
+     * @return average time the publications waited for a slot, in
+     *         milliseconds
+     */
+    synchronized long getAverageWaitMillis() {
+        return admitted > 0 ? totalWaitMillis / admitted : 0;
+    }
+
+    /**
+     * @return longest time a publication waited for a slot, in milliseconds
+     */
+    synchronized long getMaxWaitMillis() {
+        return maxWaitMillis;
+    }
+
+    /**
+     * A publication waiting for, or holding, a slot.
+     */
+    final class Slot {
+        private final String job;
+        private final String credentialsId;
+        private final PublishPriority priority;
+        private final long queued = System.currentTimeMillis();
+        private long started;
+        private long bytesPerSecond;
+
+        Slot(String job, String credentialsId, PublishPriority priority) {
+            this.job = job;
+            this.credentialsId = credentialsId;
+            this.priority = priority;
+        }
+
+        String getJob() {
+            return job;
+        }
+
+        String getCredentialsId() {
+            return credentialsId;
+        }
+
+        PublishPriority getPriority() {
+            return priority;
+        }
+
+        long getQueued() {
+            return queued;
+        }
+
+        long getStarted() {
+            return started;
+        }
+
+        /**
+         * @return the share of the byte rate budget of the publication, or 0
+         *         for no limit
+         */
+        long getBytesPerSecond() {
+            return bytesPerSecond;
+        }
+
+        /**
+         * Free the slot for the next publication.
+         */
+        void release() {
+            PublishScheduler.this.release(this);
+        }
+    }
+
+}
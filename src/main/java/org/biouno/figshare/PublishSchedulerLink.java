@@ -0,0 +1,185 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2015 Bruno P. Kinoshita, BioUno team
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package org.biouno.figshare;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import hudson.Extension;
+import hudson.Util;
+import hudson.model.ManagementLink;
+
+/**
+ * Page in <em>Manage Jenkins</em> with the publications waiting for, or
+ * holding, a slot of the {@link PublishScheduler}, and how long publications
+ * waited.
+ *
+ * @author Bruno P. Kinoshita
+ * @since 0.2
+ */
+@Extension
+public class PublishSchedulerLink extends ManagementLink {
+
+    /*
+     * (non-Javadoc)
+     * 
+     * @see hudson.model.ManagementLink#getIconFileName()
+     */
+    @Override
+    public String getIconFileName() {
+        return "document.png";
+    }
+
+    /*
+     * (non-Javadoc)
+     * 
+     * @see hudson.model.ManagementLink#getUrlName()
+     */
+    @Override
+    public String getUrlName() {
+        return "figshare-publications";
+    }
+
+    /*
+     * (non-Javadoc)
+     * 
+     * @see hudson.model.Action#getDisplayName()
+     */
+    @Override
+    public String getDisplayName() {
+        return "figshare publications";
+    }
+
+    /*
+     * (non-Javadoc)
+     * 
+     * @see hudson.model.ManagementLink#getDescription()
+     */
+    @Override
+    public String getDescription() {
+        return "Publications waiting to upload files to figshare, and how long they waited.";
+    }
+
+    /**
+     * @return the publications waiting for a slot, in the order they will
+     *         start
+     */
+    public List<Publication> getWaiting() {
+        return publications(PublishScheduler.get().getWaiting());
+    }
+
+    /**
+     * @return the publications running
+     */
+    public List<Publication> getRunning() {
+        return publications(PublishScheduler.get().getRunning());
+    }
+
+    /**
+     * @return number of publications started since Jenkins started
+     */
+    public long getAdmitted() {
+        return PublishScheduler.get().getAdmitted();
+    }
+
+    /**
+     * @return average time waited for a slot
+     */
+    public String getAverageWait() {
+        return Util.getTimeSpanString(PublishScheduler.get().getAverageWaitMillis());
+    }
+
+    /**
+     * @return longest time waited for a slot
+     */
+    public String getMaxWait() {
+        return Util.getTimeSpanString(PublishScheduler.get().getMaxWaitMillis());
+    }
+
+    private static List<Publication> publications(List<PublishScheduler.Slot> slots) {
+        final long now = System.currentTimeMillis();
+        final List<Publication> publications = new ArrayList<Publication>(slots.size());
+        for (PublishScheduler.Slot slot : slots) {
+            publications.add(new Publication(slot, now));
+        }
+        return publications;
+    }
+
+    /**
+     * A publication, as shown in the page.
+     */
+    public static final class Publication {
+        private final String job;
+        private final String credentialsId;
+        private final String priority;
+        private final String waited;
+        private final long bytesPerSecond;
+
+        Publication(PublishScheduler.Slot slot, long now) {
+            this.job = slot.getJob();
+            this.credentialsId = slot.getCredentialsId();
+            this.priority = slot.getPriority().getDisplayName();
+            this.waited = Util.getTimeSpanString((slot.getStarted() > 0 ? slot.getStarted() : now)
+                    - slot.getQueued());
+            this.bytesPerSecond = slot.getBytesPerSecond();
+        }
+
+        /**
+         * @return full name of the job publishing
+         */
+        public String getJob() {
+            return job;
+        }
+
+        /**
+         * @return figshare credential ID
+         */
+        public String getCredentialsId() {
+            return credentialsId;
+        }
+
+        /**
+         * @return priority class
+         */
+        public String getPriority() {
+            return priority;
+        }
+
+        /**
+         * @return time waited for a slot, so far for waiting publications
+         */
+        public String getWaited() {
+            return waited;
+        }
+
+        /**
+         * @return share of the upload rate budget, in bytes per second, or 0
+         *         for no limit
+         */
+        public long getBytesPerSecond() {
+            return bytesPerSecond;
+        }
+    }
+
+}
@@ -0,0 +1,306 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2015 Bruno P. Kinoshita, BioUno team
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package org.biouno.figshare;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import org.biouno.figshare.credentials.FigShareOauthCredentials;
+
+import hudson.AbortException;
+import hudson.FilePath;
+import hudson.Util;
+import hudson.model.Job;
+import hudson.model.Run;
+import jenkins.model.Jenkins;
+
+/**
+ * Master side of a publication: sends a {@link FigShareCallable} to the node
+ * with the files, or to several nodes uploading them in shards, then records
+ * the outcome in the job index and in the metrics. Shared by the notifier and
+ * the Pipeline step.
+ *
+ * @author Bruno P. Kinoshita
+ * @since 0.2
+ */
+final class PublishTask {
+
+    private static final Logger LOGGER = Logger.getLogger(PublishTask.class.getName());
+
+    private final Job<?, ?> job;
+    private final String node;
+    private final String credentialsId;
+    private final FigShareOauthCredentials credential;
+    private final String title;
+    private final String description;
+    private final String antPattern;
+    private final UploadOptions options;
+    private final boolean skipUnchangedFiles;
+    private final boolean updateArticle;
+    private final long articleId;
+    private final PublishPriority priority;
+    private final String shardLabel;
+
+    /**
+     * @param job job publishing the files
+     * @param node name of the node with the files, empty for the master
+     * @param credentialsId figshare credential ID
+     * @param credential figshare credential
+     * @param title article title
+     * @param description article description
+     * @param antPattern an ant-like pattern
+     * @param options upload options
+     * @param skipUnchangedFiles whether files already published by the job are
+     *            skipped
+     * @param updateArticle whether the files are published to the same
+     *            article every time, uploading only new or changed files
+     * @param articleId the article to update, or 0 or less for an article
+     *            created by the job the first time
+     * @param priority priority class, when waiting to publish
+     * @param shardLabel label expression of the nodes uploading the files in
+     *            shards, or <code>null</code> to upload them from the node
+     *            with the files
+     */
+    PublishTask(Job<?, ?> job, String node, String credentialsId, FigShareOauthCredentials credential,
+            String title, String description, String antPattern, UploadOptions options,
+            boolean skipUnchangedFiles, boolean updateArticle, long articleId, PublishPriority priority,
+            String shardLabel) {
+        this.job = job;
+        this.node = node;
+        this.credentialsId = credentialsId;
+        this.credential = credential;
+        this.title = title;
+        this.description = description;
+        this.antPattern = antPattern;
+        this.options = options;
+        this.skipUnchangedFiles = skipUnchangedFiles;
+        this.updateArticle = updateArticle;
+        this.articleId = articleId;
+        this.priority = priority;
+        this.shardLabel = Util.fixEmptyAndTrim(shardLabel);
+    }
+
+    /**
+     * Upload the files found in a directory to a new figshare article, or to
+     * the article kept up to date.
+     *
+     * @param workspace directory with the files
+     * @param logger output for the publication
+     * @return the publication result, or <code>null</code> if no files were
+     *         found
+     * @throws IOException if the files cannot be published
+     * @throws InterruptedException if interrupted
+     */
+    PublishResult publish(FilePath workspace, PrintStream logger) throws IOException, InterruptedException {
+        return publish(workspace, null, logger);
+    }
+
+    /**
+     * Upload the files found in a directory that must not be written to, like
+     * the archived artifacts of a build.
+     *
+     * @param files directory with the files
+     * @param checkpointDirectory directory for the upload checkpoint, in the
+     *            same node, or <code>null</code> to use the directory with
+     *            the files
+     * @param logger output for the publication
+     * @return the publication result, or <code>null</code> if no files were
+     *         found
+     * @throws IOException if the files cannot be published
+     * @throws InterruptedException if interrupted
+     */
+    PublishResult publish(FilePath files, File checkpointDirectory, PrintStream logger)
+            throws IOException, InterruptedException {
+        return publish(files, checkpointDirectory, logger, null);
+    }
+
+    /**
+     * Upload the files found in a directory, passing what was published for
+     * each file to the caller as well.
+     *
+     * @param files directory with the files
+     * @param checkpointDirectory directory for the upload checkpoint, in the
+     *            same node, or <code>null</code> to use the directory with
+     *            the files
+     * @param logger output for the publication
+     * @param records receives what was published for each file, or
+     *            <code>null</code>
+     * @return the publication result, or <code>null</code> if no files were
+     *         found
+     * @throws IOException if the files cannot be published
+     * @throws InterruptedException if interrupted
+     */
+    PublishResult publish(FilePath files, File checkpointDirectory, PrintStream logger,
+            final PublishResult.Records records) throws IOException, InterruptedException {
+        if (LOGGER.isLoggable(Level.FINEST)) {
+            LOGGER.log(Level.FINEST, "Creating FileCallable...");
+        }
+        final FigShareNotifier.DescriptorImpl descriptor = Jenkins.getInstance()
+                .getDescriptorByType(FigShareNotifier.DescriptorImpl.class);
+        final PublishScheduler.Slot slot = PublishScheduler.get().acquire(job.getFullName(), credentialsId, priority,
+                descriptor, logger);
+        // the manifest of an updated article supersedes the job index
+        final ArticleManifest manifest = updateArticle ? ArticleManifest.load(job, articleId, antPattern) : null;
+        File articleFiles = null;
+        try {
+            final UploadIndex index = skipUnchangedFiles && manifest == null ? UploadIndex.load(job) : null;
+            // read by the node with the files, rather than sent in the callable
+            articleFiles = manifest != null ? manifest.copy() : null;
+            FigShareCallable callable = new FigShareCallable(descriptor.getEndpoint(), descriptor.getApiVersion(),
+                    antPattern, title, description, credentialsId, credential,
+                    options.withMaxBytesPerSecond(slot.getBytesPerSecond()).withMeasuredBytesPerSecond(throughput()),
+                    index != null ? index.snapshot() : null,
+                    manifest != null ? manifest.getArticleId() : -1,
+                    articleFiles != null ? new FilePath(articleFiles) : null, logger);
+            if (checkpointDirectory != null) {
+                callable.withCheckpointDirectory(checkpointDirectory.getAbsolutePath());
+            }
+            if (LOGGER.isLoggable(Level.FINEST)) {
+                LOGGER.log(Level.FINEST, "Calling FileCallable...");
+            }
+            // read one at a time, rather than kept in memory
+            final PublishResult.Records recorder = new PublishResult.Records() {
+                @Override
+                void file(String path, String fileId) throws IOException {
+                    if (records != null) {
+                        records.file(path, fileId);
+                    }
+                }
+
+                @Override
+                void digest(String digest, String figshareFile) throws IOException {
+                    if (index != null) {
+                        index.put(digest, figshareFile);
+                    }
+                    if (records != null) {
+                        records.digest(digest, figshareFile);
+                    }
+                }
+
+                @Override
+                void manifestEntry(String path, ArticleManifest.Entry entry) throws IOException {
+                    if (manifest != null) {
+                        manifest.put(path, entry);
+                    }
+                    if (records != null) {
+                        records.manifestEntry(path, entry);
+                    }
+                }
+
+                @Override
+                void completed(String path) throws IOException {
+                    if (records != null) {
+                        records.completed(path);
+                    }
+                }
+
+                @Override
+                void removed(String path) throws IOException {
+                    if (manifest != null) {
+                        manifest.remove(path);
+                    }
+                }
+            };
+            final PublishResult result;
+            if (shardLabel != null && manifest == null) {
+                // the shards record their own metrics, by node
+                result = new ShardedPublication(shardLabel, callable).publish(files, logger, recorder);
+            } else {
+                if (shardLabel != null) {
+                    logger.println("Files are not uploaded in shards when updating an article");
+                }
+                try {
+                    result = files.act(callable);
+                } catch (PublishResult.IncompleteException ie) {
+                    // the files uploaded before the failure are not uploaded again
+                    try {
+                        if (manifest != null) {
+                            manifest.update(ie.getResult().getArticleId());
+                        }
+                        ie.getResult().read(files.getChannel(), PublishResult.Records.kept(recorder));
+                        save(index, manifest);
+                    } catch (IOException ioe) {
+                        LOGGER.log(Level.WARNING, "Error recording the files published before the failure", ioe);
+                    }
+                    throw ie.getFailure();
+                }
+                if (result != null) {
+                    FigShareMetrics.record(node, result.getStatistics());
+                    if (manifest != null) {
+                        manifest.update(result.getArticleId());
+                    }
+                    result.read(files.getChannel(), recorder);
+                }
+            }
+            if (result != null) {
+                save(index, manifest);
+            }
+            return result;
+        } catch (RuntimeException re) {
+            LOGGER.log(Level.WARNING, "Error executing figshare: " + re.getMessage(), re);
+            throw new AbortException("Error executing figshare: " + re.getMessage());
+        } finally {
+            slot.release();
+            if (manifest != null) {
+                manifest.close();
+            }
+            if (articleFiles != null && !articleFiles.delete()) {
+                LOGGER.fine("Could not delete " + articleFiles);
+            }
+        }
+    }
+
+    /**
+     * @param index the job index, or <code>null</code>
+     * @param manifest the article manifest, or <code>null</code>
+     * @throws IOException if either cannot be written
+     */
+    private static void save(UploadIndex index, ArticleManifest manifest) throws IOException {
+        if (index != null) {
+            index.save();
+        }
+        if (manifest != null) {
+            manifest.save();
+        }
+    }
+
+    /**
+     * @return throughput of the last publication of the job, in bytes per
+     *         second, or 0 if unknown
+     */
+    private long throughput() {
+        Run<?, ?> run = job.getLastCompletedBuild();
+        for (int i = 0; run != null && i < 10; i++, run = run.getPreviousCompletedBuild()) {
+            FigSharePublishAction action = run.getAction(FigSharePublishAction.class);
+            if (action != null && action.getStatistics() != null && action.getStatistics().getBytesPerSecond() > 0) {
+                return action.getStatistics().getBytesPerSecond();
+            }
+        }
+        return 0;
+    }
+
+}
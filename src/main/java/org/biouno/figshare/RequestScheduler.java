@@ -0,0 +1,259 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2015 Bruno P. Kinoshita, BioUno team
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package org.biouno.figshare;
+
+import java.io.IOException;
+import java.io.PrintStream;
+import java.net.ConnectException;
+import java.net.HttpRetryException;
+import java.net.NoRouteToHostException;
+import java.net.UnknownHostException;
+import java.util.Random;
+import java.util.concurrent.Callable;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * <p>
+ * Schedules the requests sent to figshare from this JVM, so that concurrent
+ * builds on the same node share one request rate.
+ * </p>
+ *
+ * <p>
+ * Requests wait for a token from a token bucket. The rate is halved every
+ * time figshare answers with 429 (Too Many Requests) or 503 (Service
+ * Unavailable), and slowly increased again after successful requests.
+ * </p>
+ *
+ * <p>
+ * Every figshare request creates an article or a file, and the figshare API
+ * client cannot look them up, so a request is only sent again, with
+ * exponential backoff and full jitter, when figshare certainly did not process
+ * it: when it was throttled, or when the connection could not be opened.
+ * Timeouts, other server errors and local errors, such as a missing file, fail
+ * at once, as the request may have created the article or file already.
+ * </p>
+ *
+ * @author Bruno P. Kinoshita
+ * @since 0.2
+ */
+final class RequestScheduler {
+
+    private static final Logger LOGGER = Logger.getLogger(RequestScheduler.class.getName());
+
+    private static final String PREFIX = RequestScheduler.class.getName();
+
+    /**
+     * Maximum number of attempts per request.
+     */
+    static final int MAX_ATTEMPTS = Math.max(1, Integer.getInteger(PREFIX + ".maxAttempts", 5));
+
+    /**
+     * Delay before the first retry, in milliseconds, doubled on every retry.
+     */
+    static final long BASE_DELAY = Long.getLong(PREFIX + ".baseDelay", 1000L);
+
+    /**
+     * Maximum delay between retries, in milliseconds.
+     */
+    static final long MAX_DELAY = Long.getLong(PREFIX + ".maxDelay", 60000L);
+
+    /**
+     * Maximum number of requests per second.
+     */
+    static final double MAX_RATE = Double.parseDouble(System.getProperty(PREFIX + ".maxRate", "20"));
+
+    private static final double MIN_RATE = 0.1;
+
+    /*
+     * HTTP status of the exceptions thrown by HttpURLConnection, that the
+     * figshare client sends its requests with.
+     */
+    private static final Pattern HTTP_STATUS = Pattern.compile("^Server returned HTTP response code: (\\d{3})\\b");
+
+    private static final Pattern RETRY_AFTER = Pattern.compile("Retry-After:?\\s*(\\d+)", Pattern.CASE_INSENSITIVE);
+
+    private static final RequestScheduler INSTANCE = new RequestScheduler();
+
+    private final Random random = new Random();
+
+    private double rate = MAX_RATE;
+    private double tokens = MAX_RATE;
+    private long lastRefill = System.nanoTime();
+    private long pausedUntil = lastRefill;
+
+    private RequestScheduler() {
+    }
+
+    /**
+     * @return the scheduler shared by the builds running in this JVM
+     */
+    static RequestScheduler get() {
+        return INSTANCE;
+    }
+
+    /**
+     * Send a request, sending it again when figshare did not process it.
+     *
+     * @param name description of the request, for the job output
+     * @param request the request
+     * @param ps job output
+     * @param statistics statistics updated with the number of retries
+     * @param <T> request result type
+     * @return request result
+     * @throws IOException if the request failed in every attempt
+     * @throws InterruptedException if interrupted
+     */
+    <T> T call(String name, Callable<T> request, PrintStream ps, UploadStatistics statistics)
+            throws IOException, InterruptedException {
+        for (int attempt = 1;; attempt++) {
+            acquire();
+            try {
+                T result = request.call();
+                succeeded();
+                return result;
+            } catch (InterruptedException ie) {
+                throw ie;
+            } catch (Exception e) {
+                final int status = status(e);
+                final boolean throttled = status == 429 || status == 503;
+                if (throttled) {
+                    throttled(retryAfter(e));
+                }
+                if (!(throttled || isUnreachable(e)) || attempt >= MAX_ATTEMPTS) {
+                    if (e instanceof IOException) {
+                        throw (IOException) e;
+                    }
+                    throw new IOException(String.format("%s failed after %d attempt(s): %s", name, attempt,
+                            e.getMessage()), e);
+                }
+                final long delay = backoff(attempt);
+                statistics.retried();
+                LOGGER.log(Level.FINE, name + " failed, retrying", e);
+                ps.println(String.format("%s failed (%s), retrying in %d ms (attempt %d of %d)", name,
+                        e.getMessage(), delay, attempt + 1, MAX_ATTEMPTS));
+                Thread.sleep(delay);
+            }
+        }
+    }
+
+    /**
+     * Wait for a token.
+     *
+     * @throws InterruptedException if interrupted
+     */
+    private synchronized void acquire() throws InterruptedException {
+        while (true) {
+            final long now = System.nanoTime();
+            tokens = Math.min(rate, tokens + (now - lastRefill) * rate / TimeUnit.SECONDS.toNanos(1));
+            lastRefill = now;
+            long wait;
+            if (now - pausedUntil < 0) {
+                wait = pausedUntil - now;
+            } else if (tokens >= 1) {
+                tokens -= 1;
+                return;
+            } else {
+                wait = (long) ((1 - tokens) / rate * TimeUnit.SECONDS.toNanos(1));
+            }
+            TimeUnit.NANOSECONDS.timedWait(this, Math.max(wait, TimeUnit.MILLISECONDS.toNanos(1)));
+        }
+    }
+
+    private synchronized void succeeded() {
+        // additive increase
+        rate = Math.min(MAX_RATE, rate + 0.1);
+    }
+
+    private synchronized void throttled(long retryAfter) {
+        // multiplicative decrease
+        rate = Math.max(MIN_RATE, rate / 2);
+        tokens = Math.min(tokens, 0);
+        if (retryAfter > 0) {
+            pausedUntil = Math.max(pausedUntil, System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(retryAfter));
+        }
+        LOGGER.log(Level.INFO, String.format("figshare is throttling requests, rate lowered to %.2f/s", rate));
+    }
+
+    private synchronized long backoff(int attempt) {
+        final long ceiling = Math.min(MAX_DELAY, BASE_DELAY << Math.min(attempt - 1, 20));
+        return (long) (random.nextDouble() * ceiling);
+    }
+
+    /**
+     * @param e a failure
+     * @return the HTTP status code of the response that caused the failure,
+     *         or -1 if there was no response
+     */
+    private static int status(Throwable e) {
+        for (Throwable t = e; t != null; t = t.getCause()) {
+            if (t instanceof HttpRetryException) {
+                return ((HttpRetryException) t).responseCode();
+            }
+            if (t instanceof IOException && t.getMessage() != null) {
+                Matcher m = HTTP_STATUS.matcher(t.getMessage());
+                if (m.find()) {
+                    return Integer.parseInt(m.group(1));
+                }
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * @param e a failure
+     * @return whether the request never reached figshare, as no connection
+     *         could be opened
+     */
+    private static boolean isUnreachable(Throwable e) {
+        for (Throwable t = e; t != null; t = t.getCause()) {
+            if (t instanceof ConnectException || t instanceof NoRouteToHostException
+                    || t instanceof UnknownHostException) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * @param e a failure
+     * @return the Retry-After delay mentioned by the failure, in milliseconds,
+     *         or -1
+     */
+    private static long retryAfter(Throwable e) {
+        for (Throwable t = e; t != null; t = t.getCause()) {
+            if (t.getMessage() != null) {
+                Matcher m = RETRY_AFTER.matcher(t.getMessage());
+                if (m.find()) {
+                    return TimeUnit.SECONDS.toMillis(Long.parseLong(m.group(1)));
+                }
+            }
+        }
+        return -1;
+    }
+
+}
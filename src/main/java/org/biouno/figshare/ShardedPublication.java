@@ -0,0 +1,355 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2015 Bruno P. Kinoshita, BioUno team
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package org.biouno.figshare;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import org.jenkinsci.remoting.RoleChecker;
+
+import hudson.AbortException;
+import hudson.FilePath;
+import hudson.FilePath.FileCallable;
+import hudson.model.Label;
+import hudson.model.Node;
+import hudson.remoting.VirtualChannel;
+import hudson.util.DaemonThreadFactory;
+import hudson.util.NamingThreadFactory;
+import jenkins.model.Jenkins;
+import jenkins.security.Roles;
+
+/**
+ * <p>
+ * Publication whose files are uploaded from several nodes at the same time,
+ * so that it is not limited by the network of a single node.
+ * </p>
+ *
+ * <p>
+ * The files are counted in the node with the workspace, and the article is
+ * created by the master. The files are then split in shards by a hash of
+ * their path, one shard for each online node with the label. Each node finds
+ * the files of its shard, and uploads them to the article. No list of the
+ * files is sent between the nodes: the master keeps the number of files of
+ * each shard and a fingerprint of their paths, to check that every one was
+ * reported in the article. The files must be found by every node under the
+ * same path, e.g. in a shared file system. The publication fails if a shard
+ * fails, or if it does not report every one of its files in the article.
+ * </p>
+ *
+ * <p>
+ * The article is created again every time, so a publication that failed
+ * leaves an incomplete article behind, which is not resumed.
+ * </p>
+ *
+ * @author Bruno P. Kinoshita
+ * @since 0.2
+ */
+final class ShardedPublication {
+
+    private static final Logger LOGGER = Logger.getLogger(ShardedPublication.class.getName());
+
+    private final String label;
+    private final FigShareCallable callable;
+
+    /**
+     * @param label label expression of the nodes uploading the files
+     * @param callable the publication, uploaded in shards
+     */
+    ShardedPublication(String label, FigShareCallable callable) {
+        this.label = label;
+        this.callable = callable;
+    }
+
+    /**
+     * @param path file path
+     * @param partitions number of partitions
+     * @return the partition of the file, from 0 to the number of partitions,
+     *         the same in every node
+     */
+    static int partition(String path, int partitions) {
+        return (int) ((PathIndex.fingerprint(path) >>> 1) % partitions);
+    }
+
+    /**
+     * Upload the files found in a directory, in shards.
+     *
+     * @param files directory with the files, reachable by every node under
+     *            the same path
+     * @param logger output for the publication
+     * @param records receives what was published for each file, read from
+     *            the nodes
+     * @return the publication result, or <code>null</code> if no files were
+     *         found
+     * @throws IOException if any shard cannot be published
+     * @throws InterruptedException if interrupted
+     */
+    PublishResult publish(FilePath files, PrintStream logger, PublishResult.Records records)
+            throws IOException, InterruptedException {
+        final List<Node> nodes = nodes();
+        final UploadStatistics statistics = new UploadStatistics();
+        final long start = System.currentTimeMillis();
+        final Partitions partitions = files.act(new Listing(callable.getIncludes(), nodes.size()));
+        statistics.scanned(System.currentTimeMillis() - start);
+        // a partition without files is not uploaded
+        final List<Integer> shards = new ArrayList<Integer>();
+        for (int i = 0; i < nodes.size(); i++) {
+            if (partitions.files[i] > 0) {
+                shards.add(i);
+            }
+        }
+        if (shards.isEmpty()) {
+            logger.println(String.format("No files found for pattern %s. Skip creating an empty figshare article.",
+                    callable.getIncludes()));
+            return null;
+        }
+        final long articleId = callable.createArticle(logger, statistics);
+        final ExecutorService executor = Executors.newFixedThreadPool(shards.size(),
+                new NamingThreadFactory(new DaemonThreadFactory(), "figshare-shard"));
+        try {
+            final List<Future<PublishResult>> uploads = new ArrayList<Future<PublishResult>>();
+            for (int i = 0; i < shards.size(); i++) {
+                final int partition = shards.get(i);
+                final Node node = nodes.get(i);
+                logger.println(String.format("Shard %d: %d file(s), %d bytes, uploaded from %s", i + 1,
+                        partitions.files[partition], partitions.bytes[partition], name(node)));
+                final FilePath base = new FilePath(node.getChannel(), files.getRemote());
+                final FigShareCallable upload = callable.forShard(articleId, name(node), partition, nodes.size(),
+                        shards.size());
+                uploads.add(executor.submit(new Callable<PublishResult>() {
+                    @Override
+                    public PublishResult call() throws Exception {
+                        return base.act(upload);
+                    }
+                }));
+            }
+            int failed = 0;
+            for (int i = 0; i < uploads.size(); i++) {
+                final int partition = shards.get(i);
+                final Node node = nodes.get(i);
+                try {
+                    final PublishResult shard = uploads.get(i).get();
+                    // a node that could not see some of the files skips them
+                    final Completed completed = new Completed(records);
+                    if (shard != null) {
+                        shard.read(node.getChannel(), completed);
+                        statistics.add(shard.getStatistics());
+                        FigShareMetrics.record(node.getNodeName(), shard.getStatistics());
+                    }
+                    final long missing = partitions.files[partition] - completed.files;
+                    if (missing > 0) {
+                        failed++;
+                        logger.println(String.format("Shard %d, uploaded from %s, is missing %d file(s)", i + 1,
+                                name(node), missing));
+                    } else if (completed.fingerprint != partitions.fingerprints[partition]) {
+                        failed++;
+                        logger.println(String.format("Shard %d, uploaded from %s, did not upload the files listed",
+                                i + 1, name(node)));
+                    }
+                } catch (ExecutionException ee) {
+                    failed++;
+                    Throwable cause = ee.getCause();
+                    if (cause instanceof PublishResult.IncompleteException) {
+                        // the article is not resumed, so nothing uploaded to it is recorded
+                        final PublishResult.IncompleteException incomplete = (PublishResult.IncompleteException) cause;
+                        incomplete.getResult().read(node.getChannel(), new PublishResult.Records() {
+                        });
+                        cause = incomplete.getCause();
+                    }
+                    LOGGER.log(Level.WARNING, "Error uploading a figshare shard from " + name(node), cause);
+                    logger.println(String.format("Shard %d, uploaded from %s, failed: %s", i + 1, name(node),
+                            cause.getMessage()));
+                }
+            }
+            if (failed > 0) {
+                throw new AbortException(String.format("%d of %d shard(s) failed, article %d is incomplete. "
+                        + "Publishing again creates a new article, delete this one from figshare", failed,
+                        shards.size(), articleId));
+            }
+            logger.println(String.format("Uploaded %d file(s), %d bytes at %d bytes/s from %d node(s)",
+                    statistics.getFiles(), statistics.getBytes(), statistics.getBytesPerSecond(), shards.size()));
+            return PublishResult.of(articleId, statistics);
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    /**
+     * @return the online nodes with the label, by name
+     * @throws AbortException if no node can upload the files
+     */
+    private List<Node> nodes() throws AbortException {
+        final Label parsed = Jenkins.getInstance().getLabel(label);
+        if (parsed == null) {
+            throw new AbortException("Invalid label expression " + label);
+        }
+        final List<Node> online = new ArrayList<Node>();
+        for (Node node : parsed.getNodes()) {
+            if (node.getChannel() != null) {
+                online.add(node);
+            }
+        }
+        if (online.isEmpty()) {
+            throw new AbortException(String.format("No online node with label %s to upload the files from", label));
+        }
+        Collections.sort(online, new Comparator<Node>() {
+            @Override
+            public int compare(Node n1, Node n2) {
+                return n1.getNodeName().compareTo(n2.getNodeName());
+            }
+        });
+        return online;
+    }
+
+    private static String name(Node node) {
+        return node.getNodeName().length() > 0 ? node.getNodeName() : "master";
+    }
+
+    /**
+     * Counts the files a shard reported in the article, passing its records
+     * to the caller.
+     */
+    private static final class Completed extends PublishResult.Records {
+
+        private final PublishResult.Records records;
+        private long files;
+        private long fingerprint;
+
+        Completed(PublishResult.Records records) {
+            this.records = records;
+        }
+
+        @Override
+        void file(String path, String fileId) throws IOException {
+            records.file(path, fileId);
+        }
+
+        @Override
+        void digest(String digest, String figshareFile) throws IOException {
+            records.digest(digest, figshareFile);
+        }
+
+        @Override
+        void manifestEntry(String path, ArticleManifest.Entry entry) throws IOException {
+            records.manifestEntry(path, entry);
+        }
+
+        @Override
+        void completed(String path) throws IOException {
+            files++;
+            fingerprint += PathIndex.fingerprint(path);
+            records.completed(path);
+        }
+
+    }
+
+    /**
+     * Number of files, bytes and fingerprint of the paths of each partition.
+     */
+    private static final class Partitions implements Serializable {
+
+        private static final long serialVersionUID = 1L;
+
+        private final long[] files;
+        private final long[] bytes;
+        /*
+         * Sum of the fingerprints of the paths, whatever the order they are
+         * found in.
+         */
+        private final long[] fingerprints;
+
+        Partitions(int count) {
+            files = new long[count];
+            bytes = new long[count];
+            fingerprints = new long[count];
+        }
+
+    }
+
+    /**
+     * Counts the files to publish, by partition, in the node with the
+     * workspace.
+     */
+    private static final class Listing implements FileCallable<Partitions> {
+
+        private static final long serialVersionUID = 1L;
+
+        private final String includes;
+        private final int partitions;
+
+        Listing(String includes, int partitions) {
+            this.includes = includes;
+            this.partitions = partitions;
+        }
+
+        /*
+         * (non-Javadoc)
+         * 
+         * @see org.jenkinsci.remoting.RoleSensitive#checkRoles(org.jenkinsci.
+         * remoting.RoleChecker)
+         */
+        @Override
+        public void checkRoles(RoleChecker checker) throws SecurityException {
+            checker.check(this, Arrays.asList(Roles.MASTER, Roles.SLAVE));
+        }
+
+        /*
+         * (non-Javadoc)
+         * 
+         * @see hudson.FilePath.FileCallable#invoke(java.io.File,
+         * hudson.remoting.VirtualChannel)
+         */
+        @Override
+        public Partitions invoke(File f, VirtualChannel channel) throws IOException, InterruptedException {
+            final Partitions listed = new Partitions(partitions);
+            new FileFinder(includes).scan(f, new FileFinder.Handler() {
+                @Override
+                public void found(String path, File file) {
+                    if (!UploadCheckpoint.isCheckpoint(path)) {
+                        final int i = partition(path, partitions);
+                        listed.files[i]++;
+                        listed.bytes[i] += file.length();
+                        listed.fingerprints[i] += PathIndex.fingerprint(path);
+                    }
+                }
+            });
+            return listed;
+        }
+
+    }
+
+}
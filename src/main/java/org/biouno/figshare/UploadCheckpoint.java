@@ -0,0 +1,224 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2015 Bruno P. Kinoshita, BioUno team
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package org.biouno.figshare;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.Charset;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * <p>
+ * Small on-disk record of an upload in progress, kept in the workspace.
+ * </p>
+ *
+ * <p>
+ * The checkpoint file is named after a fingerprint of the configuration. Its
+ * first line holds the article ID and a fingerprint of the step
+ * configuration. Every file acknowledged by figshare is then appended as one
+ * line with its size, last modified time, SHA-256 digest, figshare file ID and
+ * relative path, as in the {@link ArticleManifest}, so that a resumed update
+ * of an article still records them. When a build fails half way, the next
+ * build with the same configuration re-uses the article and only uploads the
+ * files that are missing or that changed. The checkpoint is removed once every
+ * file has been uploaded.
+ * </p>
+ *
+ * <p>
+ * Files acknowledged are only written to the checkpoint file, so that its
+ * memory does not grow with the number of files uploaded. The files of a
+ * previous upload are looked up through a {@link PathIndex} of the file.
+ * </p>
+ *
+ * @author Bruno P. Kinoshita
+ * @since 0.2
+ */
+final class UploadCheckpoint {
+
+    private static final Logger LOGGER = Logger.getLogger(UploadCheckpoint.class.getName());
+
+    /**
+     * Prefix of the checkpoint file names, relative to the workspace. Each
+     * configuration has its own checkpoint, so that publications running at
+     * the same time in the same workspace do not overwrite each other's.
+     */
+    static final String FILE_NAME_PREFIX = ".figshare-upload-";
+
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+
+    private final File file;
+    private final String fingerprint;
+    private long articleId = -1;
+    private PathIndex previous = PathIndex.empty();
+    private Writer writer;
+
+    /**
+     * Load the checkpoint from the given directory. A checkpoint written for
+     * a different configuration is ignored.
+     *
+     * @param dir workspace directory
+     * @param fingerprint fingerprint of the step configuration
+     */
+    UploadCheckpoint(File dir, String fingerprint) {
+        this.file = new File(dir, FILE_NAME_PREFIX + fingerprint);
+        this.fingerprint = fingerprint;
+        if (file.isFile()) {
+            try {
+                load();
+            } catch (IOException ioe) {
+                LOGGER.log(Level.WARNING, "Ignoring unreadable figshare checkpoint " + file, ioe);
+                articleId = -1;
+                previous = PathIndex.empty();
+            }
+        }
+    }
+
+    private void load() throws IOException {
+        final PathIndex index = PathIndex.load(file);
+        if (index.getHeader() == null) {
+            return;
+        }
+        final String[] fields = index.getHeader().split(" ", 2);
+        if (fields.length != 2 || !fingerprint.equals(fields[1])) {
+            // a different article, title or pattern: start over
+            return;
+        }
+        try {
+            articleId = Long.parseLong(fields[0]);
+        } catch (NumberFormatException nfe) {
+            throw new IOException("Invalid checkpoint header", nfe);
+        }
+        previous = index;
+    }
+
+    /**
+     * @return the article ID of a previous, unfinished upload, or -1
+     */
+    long getArticleId() {
+        return articleId;
+    }
+
+    /**
+     * Start a new checkpoint for the given article, discarding any previous
+     * one.
+     *
+     * @param articleId figshare article ID
+     * @throws IOException if the checkpoint cannot be written
+     */
+    synchronized void start(long articleId) throws IOException {
+        close();
+        this.articleId = articleId;
+        previous = PathIndex.empty();
+        writer = new OutputStreamWriter(new FileOutputStream(file, false), UTF8);
+        writer.write(articleId + " " + fingerprint + "\n");
+        writer.flush();
+    }
+
+    /**
+     * Re-open the existing checkpoint so that new entries are appended to it.
+     *
+     * @throws IOException if the checkpoint cannot be written
+     */
+    synchronized void resume() throws IOException {
+        close();
+        writer = new OutputStreamWriter(new FileOutputStream(file, true), UTF8);
+    }
+
+    /**
+     * @param path file path, relative to the workspace
+     * @param f the file
+     * @return the upload of the file, unchanged, recorded by the previous
+     *         upload, or <code>null</code> if it was not uploaded yet
+     * @throws IOException if the checkpoint cannot be read
+     */
+    synchronized ArticleManifest.Entry getCompleted(String path, File f) throws IOException {
+        final ArticleManifest.Entry completed = previous.get(path);
+        return completed != null && completed.isSameAs(f) ? completed : null;
+    }
+
+    /**
+     * Record a file acknowledged by figshare.
+     *
+     * @param path file path, relative to the workspace
+     * @param f the file
+     * @param digest SHA-256 digest of the file, or <code>null</code> if it was
+     *            not hashed
+     * @param fileId figshare file ID, or <code>null</code> if the file was
+     *            uploaded in a bundle or not uploaded at all
+     * @throws IOException if the checkpoint cannot be written
+     */
+    synchronized void completed(String path, File f, String digest, String fileId) throws IOException {
+        if (writer != null) {
+            writer.write(PathIndex.format(path, new ArticleManifest.Entry(f.length(), f.lastModified(), digest,
+                    fileId)) + "\n");
+            writer.flush();
+        }
+    }
+
+    /**
+     * Remove the checkpoint, once every file has been uploaded.
+     */
+    synchronized void delete() {
+        try {
+            close();
+        } catch (IOException ioe) {
+            LOGGER.log(Level.FINE, "Error closing figshare checkpoint", ioe);
+        }
+        if (file.exists() && !file.delete()) {
+            LOGGER.warning("Could not delete figshare checkpoint " + file);
+        }
+    }
+
+    /**
+     * Close the checkpoint, keeping it on disk.
+     *
+     * @throws IOException if the checkpoint cannot be closed
+     */
+    synchronized void close() throws IOException {
+        try {
+            previous.close();
+        } finally {
+            if (writer != null) {
+                try {
+                    writer.close();
+                } finally {
+                    writer = null;
+                }
+            }
+        }
+    }
+
+    /**
+     * @param path file path, relative to the workspace
+     * @return whether the path is a checkpoint file
+     */
+    static boolean isCheckpoint(String path) {
+        return path.startsWith(FILE_NAME_PREFIX) && path.indexOf('/') < 0;
+    }
+
+}
@@ -0,0 +1,197 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2015 Bruno P. Kinoshita, BioUno team
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package org.biouno.figshare;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.Charset;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import hudson.model.Job;
+
+/**
+ * <p>
+ * Per-job index of the content already published to figshare, mapping the
+ * SHA-256 digest of a file to the figshare article and file that hold it.
+ * </p>
+ *
+ * <p>
+ * The index lives in the job root directory on the master and keeps at most
+ * {@link #MAX_ENTRIES} digests, evicting the least recently used ones. Builds
+ * of a job may publish at the same time, so {@link #save()} merges the digests
+ * recorded by this instance into the index as it is on disk.
+ * </p>
+ *
+ * @author Bruno P. Kinoshita
+ * @since 0.2
+ */
+final class UploadIndex {
+
+    private static final Logger LOGGER = Logger.getLogger(UploadIndex.class.getName());
+
+    /**
+     * Index file name, in the job root directory.
+     */
+    static final String FILE_NAME = "figshare-index.txt";
+
+    /**
+     * Maximum number of digests kept per job.
+     */
+    static final int MAX_ENTRIES = Integer.getInteger(UploadIndex.class.getName() + ".maxEntries", 10000);
+
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+
+    private final File file;
+
+    private Map<String, String> entries = newEntries();
+
+    /**
+     * Digests recorded by this instance, merged into the index when saved.
+     */
+    private final Map<String, String> published = newEntries();
+
+    private UploadIndex(File file) {
+        this.file = file;
+    }
+
+    private static Map<String, String> newEntries() {
+        return new LinkedHashMap<String, String>(16, 0.75f, true) {
+            private static final long serialVersionUID = 1L;
+
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, String> eldest) {
+                return size() > MAX_ENTRIES;
+            }
+        };
+    }
+
+    /**
+     * Load the index of a job.
+     *
+     * @param job the job
+     * @return the index, empty if the job has not published anything yet
+     */
+    static UploadIndex load(Job<?, ?> job) {
+        return load(job.getRootDir());
+    }
+
+    /**
+     * @param dir the job root directory
+     * @return the index in the directory, empty if none
+     */
+    static UploadIndex load(File dir) {
+        UploadIndex index = new UploadIndex(new File(dir, FILE_NAME));
+        synchronized (JobFiles.lock(index.file)) {
+            index.entries = index.read();
+        }
+        return index;
+    }
+
+    /**
+     * @return the index on disk, empty if missing or unreadable
+     */
+    private Map<String, String> read() {
+        Map<String, String> entries = newEntries();
+        if (!file.isFile()) {
+            return entries;
+        }
+        try {
+            read(entries);
+        } catch (IOException ioe) {
+            LOGGER.log(Level.WARNING, "Ignoring unreadable figshare index " + file, ioe);
+            entries.clear();
+        }
+        return entries;
+    }
+
+    private void read(Map<String, String> entries) throws IOException {
+        BufferedReader reader = new BufferedReader(new InputStreamReader(new FileInputStream(file), UTF8));
+        try {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                String[] entry = line.split(" ", 2);
+                if (entry.length == 2) {
+                    entries.put(entry[0], entry[1]);
+                }
+            }
+        } finally {
+            reader.close();
+        }
+    }
+
+    /**
+     * @return a copy of the index, to be sent to the agent
+     */
+    synchronized Map<String, String> snapshot() {
+        return new HashMap<String, String>(entries);
+    }
+
+    /**
+     * Record published content. A digest already in the index is marked as
+     * recently used.
+     *
+     * @param digest SHA-256 digest of the content
+     * @param figshareFile figshare file (<code>articleId/fileId</code>) that
+     *            holds it
+     */
+    synchronized void put(String digest, String figshareFile) {
+        entries.put(digest, figshareFile);
+        published.put(digest, figshareFile);
+    }
+
+    /**
+     * Merge the digests recorded by this instance into the index on disk, and
+     * write it, least recently used entries first.
+     *
+     * @throws IOException if the index cannot be written
+     */
+    synchronized void save() throws IOException {
+        synchronized (JobFiles.lock(file)) {
+            Map<String, String> merged = read();
+            merged.putAll(published);
+            File tmp = JobFiles.createTemp(file);
+            Writer writer = new OutputStreamWriter(new FileOutputStream(tmp), UTF8);
+            try {
+                for (Map.Entry<String, String> entry : merged.entrySet()) {
+                    writer.write(entry.getKey() + " " + entry.getValue() + "\n");
+                }
+            } finally {
+                writer.close();
+            }
+            JobFiles.replace(tmp, file);
+            entries = merged;
+        }
+    }
+
+}
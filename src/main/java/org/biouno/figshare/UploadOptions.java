@@ -0,0 +1,157 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2015 Bruno P. Kinoshita, BioUno team
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package org.biouno.figshare;
+
+import java.io.Serializable;
+import java.util.zip.Deflater;
+
+/**
+ * Options of the upload, set in the job configuration and sent to the node
+ * that uploads the files.
+ *
+ * @author Bruno P. Kinoshita
+ * @since 0.2
+ */
+final class UploadOptions implements Serializable {
+
+    /*
+     * Serial UID.
+     */
+    private static final long serialVersionUID = -4505735734389417937L;
+
+    private final int uploadThreads;
+    private final long bundleSize;
+    private final int compressionLevel;
+    private final boolean skipCompressedFiles;
+    private final long maxBytesPerSecond;
+    private final long measuredBytesPerSecond;
+    private final boolean verifyUploads;
+    private final boolean adaptiveConcurrency;
+
+    /**
+     * @param uploadThreads maximum number of concurrent uploads
+     * @param bundleSize maximum size of a bundle, in bytes, or 0 to upload
+     *            each file on its own
+     * @param compressionLevel zip compression level of the bundles, 0-9
+     * @param skipCompressedFiles whether files already compressed are stored
+     *            in the bundles without being compressed again
+     * @param maxBytesPerSecond maximum average upload rate, or 0 for no limit
+     * @param measuredBytesPerSecond throughput measured by an earlier
+     *            publication, or 0 if unknown
+     * @param verifyUploads whether uploads are verified, and uploaded again
+     *            when they do not pass
+     * @param adaptiveConcurrency whether the number of concurrent uploads
+     *            adapts to the throughput, up to <code>uploadThreads</code>
+     */
+    UploadOptions(int uploadThreads, long bundleSize, int compressionLevel, boolean skipCompressedFiles,
+            long maxBytesPerSecond, long measuredBytesPerSecond, boolean verifyUploads,
+            boolean adaptiveConcurrency) {
+        this.uploadThreads = uploadThreads;
+        this.bundleSize = bundleSize;
+        this.compressionLevel = compressionLevel;
+        this.skipCompressedFiles = skipCompressedFiles;
+        this.maxBytesPerSecond = maxBytesPerSecond;
+        this.measuredBytesPerSecond = measuredBytesPerSecond;
+        this.verifyUploads = verifyUploads;
+        this.adaptiveConcurrency = adaptiveConcurrency;
+    }
+
+    /**
+     * Create options from the values in a job configuration.
+     *
+     * @param uploadThreads maximum number of concurrent uploads
+     * @param bundleSize maximum size of a bundle, in MB, or 0 to upload each
+     *            file on its own
+     * @param compressionLevel zip compression level of the bundles, 0-9
+     * @param skipCompressedFiles whether files already compressed are stored
+     *            in the bundles without being compressed again
+     * @param verifyUploads whether uploads are verified, and uploaded again
+     *            when they do not pass
+     * @param adaptiveConcurrency whether the number of concurrent uploads
+     *            adapts to the throughput, up to <code>uploadThreads</code>
+     * @return upload options
+     */
+    static UploadOptions of(int uploadThreads, int bundleSize, int compressionLevel, boolean skipCompressedFiles,
+            boolean verifyUploads, boolean adaptiveConcurrency) {
+        return new UploadOptions(Math.max(1, uploadThreads), Math.max(0, bundleSize) * 1024L * 1024L,
+                Math.max(Deflater.NO_COMPRESSION, Math.min(Deflater.BEST_COMPRESSION, compressionLevel)),
+                skipCompressedFiles, 0, 0, verifyUploads, adaptiveConcurrency);
+    }
+
+    /**
+     * @param bytesPerSecond maximum average upload rate, or 0 for no limit
+     * @return a copy of these options, with the given upload rate
+     */
+    UploadOptions withMaxBytesPerSecond(long bytesPerSecond) {
+        return new UploadOptions(uploadThreads, bundleSize, compressionLevel, skipCompressedFiles, bytesPerSecond,
+                measuredBytesPerSecond, verifyUploads, adaptiveConcurrency);
+    }
+
+    /**
+     * @param bytesPerSecond throughput measured by an earlier publication, or
+     *            0 if unknown
+     * @return a copy of these options, with the given throughput
+     */
+    UploadOptions withMeasuredBytesPerSecond(long bytesPerSecond) {
+        return new UploadOptions(uploadThreads, bundleSize, compressionLevel, skipCompressedFiles,
+                maxBytesPerSecond, bytesPerSecond, verifyUploads, adaptiveConcurrency);
+    }
+
+    int getUploadThreads() {
+        return uploadThreads;
+    }
+
+    long getBundleSize() {
+        return bundleSize;
+    }
+
+    boolean isBundling() {
+        return bundleSize > 0;
+    }
+
+    int getCompressionLevel() {
+        return compressionLevel;
+    }
+
+    boolean isSkipCompressedFiles() {
+        return skipCompressedFiles;
+    }
+
+    long getMaxBytesPerSecond() {
+        return maxBytesPerSecond;
+    }
+
+    long getMeasuredBytesPerSecond() {
+        return measuredBytesPerSecond;
+    }
+
+    boolean isVerifyUploads() {
+        return verifyUploads;
+    }
+
+    boolean isAdaptiveConcurrency() {
+        return adaptiveConcurrency;
+    }
+
+}
@@ -0,0 +1,203 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2015 Bruno P. Kinoshita, BioUno team
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package org.biouno.figshare;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.List;
+import java.util.PriorityQueue;
+import java.util.Set;
+
+import hudson.Util;
+
+/**
+ * <p>
+ * Largest files found in the workspace, collected before uploading the files
+ * in parallel, so that the largest files start first. A large file left for
+ * the end would otherwise upload alone while the other workers sit idle,
+ * making the whole publication as long as that one upload.
+ * </p>
+ *
+ * <p>
+ * Sending the files largest first to the first free worker is the longest
+ * processing time rule, whose makespan is within 4/3 of the optimal one. The
+ * plan prints that makespan, estimated at the throughput of an earlier
+ * publication, before the uploads start.
+ * </p>
+ *
+ * <p>
+ * Only the {@link #MAX_PLANNED} largest files are kept, so memory does not
+ * grow with the number of files. When more files are found, the plan is
+ * partial: the files not in it are smaller than every planned one, and are
+ * found again by a second scan once the planned files are queued.
+ * </p>
+ *
+ * @author Bruno P. Kinoshita
+ * @since 0.2
+ */
+final class UploadPlan {
+
+    /**
+     * Maximum number of files in the plan.
+     */
+    static final int MAX_PLANNED = Math.max(1, Integer.getInteger(UploadPlan.class.getName() + ".maxPlanned", 1000));
+
+    private static final double MB = 1024 * 1024;
+
+    /*
+     * Smallest planned file first, to be replaced by a larger one.
+     */
+    private final PriorityQueue<Item> items = new PriorityQueue<Item>(16, new Comparator<Item>() {
+        @Override
+        public int compare(Item a, Item b) {
+            return a.size < b.size ? -1 : a.size == b.size ? 0 : 1;
+        }
+    });
+    private final Set<String> planned = new HashSet<String>();
+    private long files;
+    private long bytes;
+    private long largest;
+
+    /**
+     * Add a file to the plan.
+     *
+     * @param path file path, relative to the workspace
+     * @param file the file
+     * @param previous previous version of the file in the article kept up to
+     *            date, or <code>null</code>
+     */
+    void add(String path, File file, ArticleManifest.Entry previous) {
+        final long size = file.length();
+        files++;
+        bytes += size;
+        largest = Math.max(largest, size);
+        if (items.size() < MAX_PLANNED) {
+            items.add(new Item(path, file, size, previous));
+        } else if (items.peek().size < size) {
+            items.poll();
+            items.add(new Item(path, file, size, previous));
+        }
+    }
+
+    /**
+     * @return whether some files were left out of the plan, and have to be
+     *         found again
+     */
+    boolean isPartial() {
+        return files > planned.size();
+    }
+
+    /**
+     * @param path file path, relative to the workspace
+     * @return whether the file was queued by the plan
+     */
+    boolean contains(String path) {
+        return planned.contains(path);
+    }
+
+    /**
+     * Print the plan, and queue the planned files, largest first.
+     *
+     * @param queue receives the files
+     * @param threads number of concurrent uploads
+     * @param bytesPerSecond throughput measured by an earlier publication, or
+     *            0 if unknown
+     * @param ps job output
+     * @throws IOException if a file cannot be queued
+     * @throws InterruptedException if interrupted
+     */
+    void submit(Queue queue, int threads, long bytesPerSecond, PrintStream ps)
+            throws IOException, InterruptedException {
+        if (items.isEmpty()) {
+            return;
+        }
+        final List<Item> largestFirst = new ArrayList<Item>(items);
+        items.clear();
+        Collections.sort(largestFirst, Collections.reverseOrder(items.comparator()));
+        // load of each worker, the least loaded one taking the next file
+        final PriorityQueue<Long> workers = new PriorityQueue<Long>();
+        for (int i = 0; i < threads; i++) {
+            workers.add(0L);
+        }
+        long makespan = 0;
+        for (Item item : largestFirst) {
+            long load = workers.poll() + item.size;
+            makespan = Math.max(makespan, load);
+            workers.add(load);
+        }
+        // the smaller files left out fill the workers evenly
+        makespan = Math.max(makespan, (bytes + threads - 1) / threads);
+        final String estimate;
+        if (bytesPerSecond > 0) {
+            // each worker is assumed to get an equal part of the throughput
+            estimate = "about " + Util.getTimeSpanString(makespan * 1000 / Math.max(1, bytesPerSecond / threads));
+        } else {
+            estimate = "unknown until a publication has measured the throughput";
+        }
+        ps.println(String.format("Upload plan: %d file(s), %.1f MB, largest %.1f MB, %d concurrent uploads, "
+                + "largest first. Estimated duration %s", files, bytes / MB, largest / MB, threads, estimate));
+        for (Item item : largestFirst) {
+            planned.add(item.path);
+            queue.queue(item.path, item.file, item.previous);
+        }
+    }
+
+    /**
+     * Receives the files of the plan.
+     */
+    interface Queue {
+        /**
+         * @param path file path, relative to the workspace
+         * @param file the file
+         * @param previous previous version of the file in the article kept up
+         *            to date, or <code>null</code>
+         * @throws IOException if the file cannot be queued
+         * @throws InterruptedException if interrupted
+         */
+        void queue(String path, File file, ArticleManifest.Entry previous) throws IOException, InterruptedException;
+    }
+
+    /**
+     * A file to upload.
+     */
+    private static final class Item {
+        private final String path;
+        private final File file;
+        private final long size;
+        private final ArticleManifest.Entry previous;
+
+        Item(String path, File file, long size, ArticleManifest.Entry previous) {
+            this.path = path;
+            this.file = file;
+            this.size = size;
+            this.previous = previous;
+        }
+    }
+
+}
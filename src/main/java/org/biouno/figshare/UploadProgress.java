@@ -0,0 +1,188 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2015 Bruno P. Kinoshita, BioUno team
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package org.biouno.figshare;
+
+import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import hudson.Util;
+import hudson.util.DaemonThreadFactory;
+import hudson.util.NamingThreadFactory;
+
+/**
+ * <p>
+ * Reports the progress of the uploads of a publication in the job output,
+ * every {@link #INTERVAL} milliseconds while files are being uploaded, so
+ * that long uploads are not mistaken for a hung build.
+ * </p>
+ *
+ * <p>
+ * The figshare client sends each file in one request, without reporting the
+ * bytes sent, so progress is counted in files completed. Each report has the
+ * bytes uploaded out of the bytes queued, the throughput since the first
+ * upload started, the estimated time left at that throughput, and the files
+ * uploading for longer than an interval. Reports cost one line per interval,
+ * however many uploads run in parallel.
+ * </p>
+ *
+ * @author Bruno P. Kinoshita
+ * @since 0.2
+ */
+final class UploadProgress {
+
+    /**
+     * Time between two reports, in milliseconds.
+     */
+    static final long INTERVAL = Math.max(1000L, Long.getLong(UploadProgress.class.getName() + ".interval", 15000L));
+
+    /**
+     * Maximum number of running files listed per report.
+     */
+    private static final int MAX_LISTED = 5;
+
+    private static final double MB = 1024 * 1024;
+
+    private final PrintStream ps;
+    private final ScheduledExecutorService timer;
+    private final Map<String, Running> running = new HashMap<String, Running>();
+    private long queuedBytes;
+    private long uploadedBytes;
+    private long firstStart = -1;
+
+    /**
+     * @param ps job output
+     */
+    UploadProgress(PrintStream ps) {
+        this.ps = ps;
+        this.timer = Executors.newSingleThreadScheduledExecutor(new NamingThreadFactory(new DaemonThreadFactory(),
+                "figshare-progress"));
+        this.timer.scheduleAtFixedRate(new Runnable() {
+            @Override
+            public void run() {
+                report();
+            }
+        }, INTERVAL, INTERVAL, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * @param bytes size of a file queued for upload
+     */
+    synchronized void queued(long bytes) {
+        queuedBytes += bytes;
+    }
+
+    /**
+     * @param bytes size of a queued file that will not be uploaded
+     */
+    synchronized void skipped(long bytes) {
+        queuedBytes -= bytes;
+    }
+
+    /**
+     * @param path file path
+     * @param bytes file size
+     */
+    synchronized void started(String path, long bytes) {
+        final long now = System.currentTimeMillis();
+        if (firstStart < 0) {
+            firstStart = now;
+        }
+        running.put(path, new Running(path, bytes, now));
+    }
+
+    /**
+     * @param path file path
+     * @param bytes file size
+     * @param uploaded whether the file was uploaded, or failed
+     */
+    synchronized void finished(String path, long bytes, boolean uploaded) {
+        running.remove(path);
+        if (uploaded) {
+            uploadedBytes += bytes;
+        } else {
+            queuedBytes -= bytes;
+        }
+    }
+
+    /**
+     * Stop reporting.
+     */
+    void close() {
+        timer.shutdownNow();
+    }
+
+    private synchronized void report() {
+        if (running.isEmpty()) {
+            return;
+        }
+        final long now = System.currentTimeMillis();
+        final double seconds = (now - firstStart) / 1000d;
+        final double rate = seconds > 0 ? uploadedBytes / seconds : 0;
+        final String eta = rate > 0 ? Util.getTimeSpanString((long) ((queuedBytes - uploadedBytes) / rate * 1000))
+                : "unknown";
+        ps.println(String.format("Uploading %d file(s), %.1f of %.1f MB uploaded (%d%%), %.2f MB/s, %s left",
+                running.size(), uploadedBytes / MB, queuedBytes / MB,
+                queuedBytes > 0 ? uploadedBytes * 100 / queuedBytes : 0, rate / MB, eta));
+        final List<Running> slow = new ArrayList<Running>();
+        for (Running file : running.values()) {
+            if (now - file.start >= INTERVAL) {
+                slow.add(file);
+            }
+        }
+        Collections.sort(slow, new Comparator<Running>() {
+            @Override
+            public int compare(Running a, Running b) {
+                return a.start < b.start ? -1 : a.start == b.start ? 0 : 1;
+            }
+        });
+        for (Running file : slow.subList(0, Math.min(MAX_LISTED, slow.size()))) {
+            ps.println(String.format("  %s (%.1f MB) uploading for %s", file.path, file.bytes / MB,
+                    Util.getTimeSpanString(now - file.start)));
+        }
+    }
+
+    /**
+     * A file being uploaded.
+     */
+    private static final class Running {
+        private final String path;
+        private final long bytes;
+        private final long start;
+
+        Running(String path, long bytes, long start) {
+            this.path = path;
+            this.bytes = bytes;
+            this.start = start;
+        }
+    }
+
+}
@@ -0,0 +1,325 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2015 Bruno P. Kinoshita, BioUno team
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package org.biouno.figshare;
+
+import java.io.Serializable;
+
+/**
+ * <p>
+ * Timings of a publication to figshare: workspace scan, article creation,
+ * hashing and file uploads. The time spent hashing files, waiting for a
+ * worker, and sending the upload requests is recorded apart.
+ * </p>
+ *
+ * <p>
+ * Upload and hashing latencies are kept in histograms with exponentially
+ * growing buckets (four per power of two), so that percentiles can be
+ * estimated using a fixed amount of memory, whatever the number of files.
+ * </p>
+ *
+ * @author Bruno P. Kinoshita
+ * @since 0.2
+ */
+public final class UploadStatistics implements Serializable {
+
+    /*
+     * Serial UID.
+     */
+    private static final long serialVersionUID = 3170523541862337716L;
+
+    private static final int BUCKETS_PER_DOUBLING = 4;
+    private static final int BUCKETS = 40 * BUCKETS_PER_DOUBLING;
+
+    private long scanMillis;
+    private long articleMillis;
+    private long files;
+    private long bytes;
+    private long retries;
+    private long queueWaitMillis;
+    private long maxQueueWaitMillis;
+    private long firstStart = -1;
+    private long lastEnd = -1;
+    private long logBatches;
+    private long logBytes;
+    private final long[] latencies = new long[BUCKETS];
+    private long hashedFiles;
+    private long hashedBytes;
+    private long hashMillis;
+    private final long[] hashLatencies = new long[BUCKETS];
+
+    synchronized void scanned(long millis) {
+        scanMillis = millis;
+    }
+
+    synchronized void articleCreated(long millis) {
+        articleMillis = millis;
+    }
+
+    synchronized void logged(long batches, long bytes) {
+        logBatches = batches;
+        logBytes = bytes;
+    }
+
+    synchronized void retried() {
+        retries++;
+    }
+
+    /**
+     * Record a hashed file.
+     *
+     * @param size file size, in bytes
+     * @param millis milliseconds spent reading and hashing the file
+     */
+    synchronized void hashed(long size, long millis) {
+        hashedFiles++;
+        hashedBytes += size;
+        hashMillis += millis;
+        hashLatencies[bucket(millis)]++;
+    }
+
+    /**
+     * Record an uploaded file.
+     *
+     * @param size file size, in bytes
+     * @param queueWait milliseconds the file waited for a worker, a
+     *            concurrency slot or the rate budget, hashing excluded
+     * @param start start of the upload request, in milliseconds since the
+     *            epoch
+     * @param end end of the upload request, in milliseconds since the epoch
+     */
+    synchronized void uploaded(long size, long queueWait, long start, long end) {
+        files++;
+        bytes += size;
+        queueWaitMillis += queueWait;
+        maxQueueWaitMillis = Math.max(maxQueueWaitMillis, queueWait);
+        firstStart = firstStart < 0 ? start : Math.min(firstStart, start);
+        lastEnd = Math.max(lastEnd, end);
+        latencies[bucket(end - start)]++;
+    }
+
+    /**
+     * Add the statistics of a shard of the publication, uploaded at the same
+     * time as the others.
+     *
+     * @param shard statistics of the shard
+     */
+    synchronized void add(UploadStatistics shard) {
+        synchronized (shard) {
+            scanMillis = Math.max(scanMillis, shard.scanMillis);
+            files += shard.files;
+            bytes += shard.bytes;
+            retries += shard.retries;
+            queueWaitMillis += shard.queueWaitMillis;
+            maxQueueWaitMillis = Math.max(maxQueueWaitMillis, shard.maxQueueWaitMillis);
+            if (shard.firstStart >= 0) {
+                firstStart = firstStart < 0 ? shard.firstStart : Math.min(firstStart, shard.firstStart);
+            }
+            lastEnd = Math.max(lastEnd, shard.lastEnd);
+            logBatches += shard.logBatches;
+            logBytes += shard.logBytes;
+            hashedFiles += shard.hashedFiles;
+            hashedBytes += shard.hashedBytes;
+            hashMillis += shard.hashMillis;
+            for (int i = 0; i < BUCKETS; i++) {
+                latencies[i] += shard.latencies[i];
+                hashLatencies[i] += shard.hashLatencies[i];
+            }
+        }
+    }
+
+    private static int bucket(long millis) {
+        if (millis < 1) {
+            return 0;
+        }
+        final int bucket = (int) Math.ceil(Math.log(millis) / Math.log(2) * BUCKETS_PER_DOUBLING);
+        return Math.min(BUCKETS - 1, Math.max(0, bucket));
+    }
+
+    private static long upperBound(int bucket) {
+        return (long) Math.ceil(Math.pow(2, (double) bucket / BUCKETS_PER_DOUBLING));
+    }
+
+    /**
+     * @return milliseconds spent scanning the workspace
+     */
+    public synchronized long getScanMillis() {
+        return scanMillis;
+    }
+
+    /**
+     * @return milliseconds spent creating the article
+     */
+    public synchronized long getArticleMillis() {
+        return articleMillis;
+    }
+
+    /**
+     * @return number of files uploaded
+     */
+    public synchronized long getFiles() {
+        return files;
+    }
+
+    /**
+     * @return number of bytes uploaded
+     */
+    public synchronized long getBytes() {
+        return bytes;
+    }
+
+    /**
+     * @return number of requests retried
+     */
+    public synchronized long getRetries() {
+        return retries;
+    }
+
+    /**
+     * @return number of batches of job output sent from the node
+     */
+    public synchronized long getLogBatches() {
+        return logBatches;
+    }
+
+    /**
+     * @return number of bytes of job output sent from the node
+     */
+    public synchronized long getLogBytes() {
+        return logBytes;
+    }
+
+    /**
+     * @return milliseconds between the first upload starting and the last one
+     *         finishing
+     */
+    public synchronized long getUploadMillis() {
+        return firstStart < 0 ? 0 : lastEnd - firstStart;
+    }
+
+    /**
+     * @return bytes uploaded per second
+     */
+    public synchronized long getBytesPerSecond() {
+        final long millis = getUploadMillis();
+        return millis > 0 ? bytes * 1000 / millis : 0;
+    }
+
+    /**
+     * @return average milliseconds a file waited for a worker, a concurrency
+     *         slot or the rate budget
+     */
+    public synchronized long getAverageQueueWaitMillis() {
+        return files > 0 ? queueWaitMillis / files : 0;
+    }
+
+    /**
+     * @return longest time, in milliseconds, a file waited for a worker, a
+     *         concurrency slot or the rate budget
+     */
+    public synchronized long getMaxQueueWaitMillis() {
+        return maxQueueWaitMillis;
+    }
+
+    /**
+     * @return median upload request latency, in milliseconds
+     */
+    public long getP50Millis() {
+        return getLatencyPercentile(0.5);
+    }
+
+    /**
+     * @return 99th percentile of the upload request latency, in milliseconds
+     */
+    public long getP99Millis() {
+        return getLatencyPercentile(0.99);
+    }
+
+    /**
+     * @param percentile percentile, between 0 and 1
+     * @return estimated upload latency at the percentile, in milliseconds
+     */
+    public synchronized long getLatencyPercentile(double percentile) {
+        return percentile(latencies, files, percentile);
+    }
+
+    /**
+     * @return number of files hashed
+     */
+    public synchronized long getHashedFiles() {
+        return hashedFiles;
+    }
+
+    /**
+     * @return milliseconds spent hashing files, added across workers
+     */
+    public synchronized long getHashMillis() {
+        return hashMillis;
+    }
+
+    /**
+     * @return bytes hashed per second, by one worker
+     */
+    public synchronized long getHashBytesPerSecond() {
+        return hashMillis > 0 ? hashedBytes * 1000 / hashMillis : 0;
+    }
+
+    /**
+     * @return median time to hash a file, in milliseconds
+     */
+    public long getHashP50Millis() {
+        return getHashLatencyPercentile(0.5);
+    }
+
+    /**
+     * @return 99th percentile of the time to hash a file, in milliseconds
+     */
+    public long getHashP99Millis() {
+        return getHashLatencyPercentile(0.99);
+    }
+
+    /**
+     * @param percentile percentile, between 0 and 1
+     * @return estimated time to hash a file at the percentile, in
+     *         milliseconds
+     */
+    public synchronized long getHashLatencyPercentile(double percentile) {
+        return percentile(hashLatencies, hashedFiles, percentile);
+    }
+
+    private static long percentile(long[] histogram, long count, double percentile) {
+        if (count == 0) {
+            return 0;
+        }
+        final long rank = Math.max(1, (long) Math.ceil(percentile * count));
+        long seen = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            seen += histogram[i];
+            if (seen >= rank) {
+                return upperBound(i);
+            }
+        }
+        return upperBound(BUCKETS - 1);
+    }
+
+}
@@ -0,0 +1,185 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2015 Bruno P. Kinoshita, BioUno team
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package org.biouno.figshare;
+
+import java.io.File;
+import java.math.BigDecimal;
+import java.util.Locale;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * <p>
+ * Checks that a file arrived whole in figshare, once uploaded.
+ * </p>
+ *
+ * <p>
+ * The figshare v1 API reports the name, size and MIME type of an uploaded
+ * file, but no checksum. So an upload is trusted when the size reported by
+ * figshare matches the local file, and when the local file did not change
+ * while it was uploaded, as a file still being written would be sent
+ * truncated.
+ * </p>
+ *
+ * <p>
+ * figshare may report a size with a unit, such as <code>10.0 GB</code>, in
+ * units of either 1000 or 1024 bytes. The size of the file must match one of
+ * the two readings within the precision of the printed digits only: half a
+ * unit of the last digit below, if it was rounded, or a whole unit above, if
+ * it was truncated. A size that cannot be read is reported, and only fails the
+ * verification when it is strict, see the
+ * <code>org.biouno.figshare.UploadVerifier.strict</code> system property.
+ * </p>
+ *
+ * @author Bruno P. Kinoshita
+ * @since 0.2
+ */
+final class UploadVerifier {
+
+    /**
+     * Maximum number of times a file is uploaded, when the uploads do not
+     * pass the verification.
+     */
+    static final int MAX_ATTEMPTS = Math.max(1, Integer.getInteger(UploadVerifier.class.getName() + ".maxAttempts",
+            3));
+
+    /**
+     * Whether an upload whose size cannot be read fails the verification.
+     */
+    static final boolean STRICT = Boolean.getBoolean(UploadVerifier.class.getName() + ".strict");
+
+    private static final Pattern SIZE = Pattern.compile("(\\d+(?:\\.\\d+)?)\\s*([KMGT]?B)?", Pattern.CASE_INSENSITIVE);
+
+    private final File file;
+    private final long size;
+    private final long lastModified;
+    private boolean sizeChecked;
+
+    /**
+     * Record the state of a file before it is uploaded.
+     *
+     * @param file the file
+     */
+    UploadVerifier(File file) {
+        this.file = file;
+        this.size = file.length();
+        this.lastModified = file.lastModified();
+    }
+
+    /**
+     * @return size of the file when the upload started
+     */
+    long getSize() {
+        return size;
+    }
+
+    /**
+     * @return modification time of the file when the upload started
+     */
+    long getLastModified() {
+        return lastModified;
+    }
+
+    /**
+     * @return whether the last verification compared the size reported by
+     *         figshare, which it does not when it cannot be read
+     */
+    boolean isSizeChecked() {
+        return sizeChecked;
+    }
+
+    /**
+     * @param reportedSize size of the uploaded file, as reported by figshare
+     * @return why the upload cannot be trusted, or <code>null</code> if it
+     *         passed the verification
+     */
+    String verify(String reportedSize) {
+        sizeChecked = false;
+        if (file.length() != size || file.lastModified() != lastModified) {
+            return "the file changed while it was uploaded";
+        }
+        final Matcher m = match(reportedSize);
+        if (m == null) {
+            return STRICT ? String.format("figshare reports a size that cannot be read, %s", reportedSize) : null;
+        }
+        sizeChecked = true;
+        if (!matches(size, m, 1000) && !matches(size, m, 1024)) {
+            return String.format("figshare reports %s, the file has %d bytes", reportedSize, size);
+        }
+        return null;
+    }
+
+    /**
+     * @param reportedSize a size, such as <code>1024</code> or
+     *            <code>1.5 MB</code>
+     * @param size a size in bytes
+     * @return whether the size matches the reported size, in units of 1000 or
+     *         of 1024 bytes
+     */
+    static boolean matches(String reportedSize, long size) {
+        final Matcher m = match(reportedSize);
+        return m != null && (matches(size, m, 1000) || matches(size, m, 1024));
+    }
+
+    /**
+     * @param size size in bytes
+     * @param m the reported size
+     * @param base bytes in a kilobyte
+     * @return whether the size, in the unit reported, prints as the reported
+     *         digits, rounded or truncated
+     */
+    private static boolean matches(long size, Matcher m, long base) {
+        final String digits = m.group(1);
+        final int exponent = exponent(m.group(2));
+        if (exponent == 0) {
+            return digits.indexOf('.') < 0 && Long.parseLong(digits) == size;
+        }
+        final int dot = digits.indexOf('.');
+        final BigDecimal last = BigDecimal.ONE.movePointLeft(dot < 0 ? 0 : digits.length() - dot - 1);
+        final BigDecimal reported = new BigDecimal(digits);
+        final BigDecimal actual = new BigDecimal(size).divide(BigDecimal.valueOf(base).pow(exponent));
+        return actual.compareTo(reported.subtract(last.divide(BigDecimal.valueOf(2)))) >= 0
+                && actual.compareTo(reported.add(last)) < 0;
+    }
+
+    private static Matcher match(String reportedSize) {
+        if (reportedSize == null) {
+            return null;
+        }
+        final Matcher m = SIZE.matcher(reportedSize.trim());
+        return m.matches() ? m : null;
+    }
+
+    /**
+     * @param suffix unit, such as <code>MB</code>, or <code>null</code>
+     * @return the power of a kilobyte in the unit
+     */
+    private static int exponent(String suffix) {
+        if (suffix == null || suffix.length() == 1) {
+            return 0;
+        }
+        return "KMGT".indexOf(suffix.toUpperCase(Locale.ENGLISH).charAt(0)) + 1;
+    }
+
+}
@@ -0,0 +1,135 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2015 Bruno P. Kinoshita, BioUno team
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package org.biouno.figshare.credentials;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import com.cloudbees.plugins.credentials.CredentialsMatchers;
+import com.cloudbees.plugins.credentials.CredentialsProvider;
+import com.cloudbees.plugins.credentials.SystemCredentialsProvider;
+import com.cloudbees.plugins.credentials.domains.DomainRequirement;
+
+import edu.umd.cs.findbugs.annotations.CheckForNull;
+import edu.umd.cs.findbugs.annotations.NonNull;
+import hudson.Extension;
+import hudson.XmlFile;
+import hudson.model.Item;
+import hudson.model.ItemGroup;
+import hudson.model.Saveable;
+import hudson.model.listeners.SaveableListener;
+import hudson.security.ACL;
+
+/**
+ * <p>
+ * Cache of the figshare credentials resolved for each job, so that builds do
+ * not search every credentials store to find their credential.
+ * </p>
+ *
+ * <p>
+ * The cache is cleared whenever a credentials store is saved, either the
+ * global store or a store in a folder, so that builds always use the current
+ * secrets after credentials are added, updated or removed.
+ * </p>
+ *
+ * @author Bruno P. Kinoshita
+ * @since 0.2
+ */
+public final class CredentialsCache {
+
+    private static final Logger LOGGER = Logger.getLogger(CredentialsCache.class.getName());
+
+    private static final ConcurrentMap<String, FigShareOauthCredentials> CACHE =
+            new ConcurrentHashMap<String, FigShareOauthCredentials>();
+
+    private CredentialsCache() {
+    }
+
+    /**
+     * Find a credential available to a job.
+     *
+     * @param credentialsId credential ID
+     * @param item the job
+     * @return the credential, or <code>null</code> if not found
+     */
+    @CheckForNull
+    public static FigShareOauthCredentials get(@CheckForNull String credentialsId, @NonNull Item item) {
+        if (credentialsId == null) {
+            return null;
+        }
+        final String key = item.getFullName() + '\n' + credentialsId;
+        FigShareOauthCredentials credential = CACHE.get(key);
+        if (credential == null) {
+            final List<FigShareOauthCredentials> credentials = CredentialsProvider.lookupCredentials(
+                    FigShareOauthCredentials.class, item, ACL.SYSTEM, Collections.<DomainRequirement> emptyList());
+            credential = CredentialsMatchers.firstOrNull(credentials,
+                    CredentialsMatchers.allOf(CredentialsMatchers.withId(credentialsId)));
+            // missing credentials are not cached, they may be created anytime
+            if (credential != null) {
+                CACHE.put(key, credential);
+            }
+        }
+        return credential;
+    }
+
+    /**
+     * Clear the cache.
+     */
+    public static void invalidate() {
+        if (LOGGER.isLoggable(Level.FINE)) {
+            LOGGER.log(Level.FINE, "Clearing {0} cached figshare credentials", CACHE.size());
+        }
+        CACHE.clear();
+    }
+
+    /**
+     * Clears the cache when a credentials store may have changed.
+     *
+     * @author Bruno P. Kinoshita
+     * @since 0.2
+     */
+    @Extension
+    public static class StoreListener extends SaveableListener {
+
+        /*
+         * (non-Javadoc)
+         * 
+         * @see hudson.model.listeners.SaveableListener#onChange(hudson.model.
+         * Saveable, hudson.XmlFile)
+         */
+        @Override
+        public void onChange(Saveable o, XmlFile file) {
+            // folders keep their credentials stores in their configuration
+            if (o instanceof SystemCredentialsProvider || o instanceof ItemGroup) {
+                invalidate();
+            }
+        }
+
+    }
+
+}
@@ -0,0 +1,155 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2015 Bruno P. Kinoshita, BioUno team
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package org.biouno.figshare;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayOutputStream;
+import java.io.PrintStream;
+
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Tests for {@link AdaptiveConcurrency}. A round of uploads that sends many
+ * more bytes than the previous one holds its throughput, however long it
+ * takes, and a round that sends nothing drops it.
+ *
+ * @author Bruno P. Kinoshita
+ * @since 0.2
+ */
+public class AdaptiveConcurrencyTest {
+
+    private static final long MANY_BYTES = 1L << 40;
+
+    private UploadStatistics statistics;
+    private ByteArrayOutputStream out;
+    private AdaptiveConcurrency concurrency;
+
+    @Before
+    public void setUp() {
+        statistics = new UploadStatistics();
+        out = new ByteArrayOutputStream();
+        concurrency = new AdaptiveConcurrency(8, statistics, new PrintStream(out, true));
+    }
+
+    @Test
+    public void doublesUpToTheMaximumInSlowStart() throws Exception {
+        assertEquals(1, concurrency.getLimit());
+        round(1, false);
+        assertEquals(2, concurrency.getLimit());
+        round(MANY_BYTES, false);
+        assertEquals(4, concurrency.getLimit());
+        round(MANY_BYTES * 1000, false);
+        assertEquals(8, concurrency.getLimit());
+        round(MANY_BYTES * 1000000, false);
+        assertEquals(8, concurrency.getLimit());
+        assertTrue(out.toString(), out.toString().contains("Upload concurrency raised from 4 to 8"));
+    }
+
+    @Test
+    public void halvesWhenAnUploadFails() throws Exception {
+        round(1, false);
+        round(MANY_BYTES, false);
+        assertEquals(4, concurrency.getLimit());
+        round(MANY_BYTES, true);
+        assertEquals(2, concurrency.getLimit());
+        assertTrue(out.toString(), out.toString().contains("Upload concurrency lowered from 4 to 2"));
+        // no longer in slow start
+        round(MANY_BYTES * 1000, false);
+        assertEquals(3, concurrency.getLimit());
+    }
+
+    @Test
+    public void halvesWhenRequestsAreRetried() throws Exception {
+        round(1, false);
+        assertEquals(2, concurrency.getLimit());
+        concurrency.acquire();
+        concurrency.acquire();
+        statistics.retried();
+        concurrency.release(MANY_BYTES, false);
+        concurrency.release(MANY_BYTES, false);
+        assertEquals(1, concurrency.getLimit());
+    }
+
+    @Test
+    public void lowersWhenTheThroughputDrops() throws Exception {
+        round(1, false);
+        round(MANY_BYTES, false);
+        assertEquals(4, concurrency.getLimit());
+        round(0, false);
+        assertEquals(3, concurrency.getLimit());
+        assertTrue(out.toString(), out.toString().contains("throughput dropped"));
+    }
+
+    @Test
+    public void neverGoesBelowOne() throws Exception {
+        round(1, true);
+        assertEquals(1, concurrency.getLimit());
+        assertFalse(out.toString(), out.toString().contains("lowered"));
+        round(MANY_BYTES, false);
+        assertEquals(2, concurrency.getLimit());
+        round(1, false);
+        assertEquals(1, concurrency.getLimit());
+        round(1, true);
+        assertEquals(1, concurrency.getLimit());
+    }
+
+    @Test
+    public void waitsForAFreeSlot() throws Exception {
+        concurrency.acquire();
+        final Thread waiting = new Thread() {
+            @Override
+            public void run() {
+                try {
+                    concurrency.acquire();
+                } catch (InterruptedException ie) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+        };
+        waiting.start();
+        waiting.join(200);
+        assertTrue(waiting.isAlive());
+        concurrency.release(1, false);
+        waiting.join(10000);
+        assertFalse(waiting.isAlive());
+    }
+
+    /**
+     * Run as many uploads as the limit allows, each sending the given bytes.
+     */
+    private void round(long bytes, boolean failed) throws InterruptedException {
+        final int limit = concurrency.getLimit();
+        for (int i = 0; i < limit; i++) {
+            concurrency.acquire();
+        }
+        for (int i = 0; i < limit; i++) {
+            concurrency.release(bytes, failed);
+        }
+    }
+
+}
@@ -0,0 +1,176 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2015 Bruno P. Kinoshita, BioUno team
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package org.biouno.figshare;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+/**
+ * Tests for {@link ArticleManifest}.
+ *
+ * @author Bruno P. Kinoshita
+ * @since 0.2
+ */
+public class ArticleManifestTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void isEmptyBeforeThePublication() throws Exception {
+        final ArticleManifest manifest = ArticleManifest.load(folder.getRoot(), 0, "**/*.dat");
+        assertEquals(-1, manifest.getArticleId());
+        assertTrue(entries(manifest).isEmpty());
+    }
+
+    @Test
+    public void savesAndLoadsTheFilesOfTheArticle() throws Exception {
+        final File dir = folder.getRoot();
+        final ArticleManifest manifest = ArticleManifest.load(dir, 0, "**/*.dat");
+        manifest.update(42);
+        manifest.put("a.dat", new ArticleManifest.Entry(10, 1000, "abc", "7"));
+        manifest.put("dir/name with spaces.dat", new ArticleManifest.Entry(20, 2000, null, null));
+        manifest.save();
+
+        final ArticleManifest loaded = ArticleManifest.load(dir, 0, "**/*.dat");
+        assertEquals(42, loaded.getArticleId());
+        final Map<String, ArticleManifest.Entry> entries = entries(loaded);
+        assertEquals(2, entries.size());
+        final ArticleManifest.Entry a = entries.get("a.dat");
+        assertEquals(10, a.getSize());
+        assertEquals(1000, a.getLastModified());
+        assertEquals("abc", a.getDigest());
+        assertEquals("7", a.getFileId());
+        final ArticleManifest.Entry spaces = entries.get("dir/name with spaces.dat");
+        assertEquals(20, spaces.getSize());
+        assertNull(spaces.getDigest());
+        assertNull(spaces.getFileId());
+        assertTrue(entries(ArticleManifest.load(dir, 0, "**/*.txt")).isEmpty());
+    }
+
+    @Test
+    public void isNamedAfterTheArticleConfigured() throws Exception {
+        final File dir = folder.getRoot();
+        final ArticleManifest manifest = ArticleManifest.load(dir, 42, "**/*.dat");
+        manifest.update(42);
+        manifest.put("a.dat", new ArticleManifest.Entry(10, 1000, "abc", "7"));
+        manifest.save();
+        assertTrue(new File(dir, ArticleManifest.FILE_NAME_PREFIX + "42.txt").isFile());
+        assertEquals(1, entries(ArticleManifest.load(dir, 42, "**/*.txt")).size());
+    }
+
+    @Test
+    public void mergesTheFilesOfConcurrentBuilds() throws Exception {
+        final File dir = folder.getRoot();
+        final ArticleManifest first = ArticleManifest.load(dir, 42, "**/*.dat");
+        final ArticleManifest second = ArticleManifest.load(dir, 42, "**/*.dat");
+        first.update(42);
+        first.put("a.dat", new ArticleManifest.Entry(10, 1000, "abc", "7"));
+        second.update(42);
+        second.put("b.dat", new ArticleManifest.Entry(20, 2000, "def", "8"));
+        first.save();
+        second.save();
+        assertEquals(2, entries(ArticleManifest.load(dir, 42, "**/*.dat")).size());
+    }
+
+    @Test
+    public void dropsTheFilesRemoved() throws Exception {
+        final File dir = folder.getRoot();
+        final ArticleManifest manifest = ArticleManifest.load(dir, 42, "**/*.dat");
+        manifest.update(42);
+        manifest.put("a.dat", new ArticleManifest.Entry(10, 1000, "abc", "7"));
+        manifest.put("b.dat", new ArticleManifest.Entry(20, 2000, "def", "8"));
+        manifest.save();
+        final ArticleManifest next = ArticleManifest.load(dir, 42, "**/*.dat");
+        next.update(42);
+        next.remove("a.dat");
+        next.save();
+        assertEquals("[b.dat]", entries(ArticleManifest.load(dir, 42, "**/*.dat")).keySet().toString());
+    }
+
+    @Test
+    public void replacesTheFilesOfAnotherArticle() throws Exception {
+        final File dir = folder.getRoot();
+        final ArticleManifest first = ArticleManifest.load(dir, 0, "**/*.dat");
+        final ArticleManifest second = ArticleManifest.load(dir, 0, "**/*.dat");
+        first.update(42);
+        first.put("a.dat", new ArticleManifest.Entry(10, 1000, "abc", "7"));
+        first.save();
+        second.update(43);
+        second.put("b.dat", new ArticleManifest.Entry(20, 2000, "def", "8"));
+        second.save();
+        final ArticleManifest loaded = ArticleManifest.load(dir, 0, "**/*.dat");
+        assertEquals(43, loaded.getArticleId());
+        assertEquals("[b.dat]", entries(loaded).keySet().toString());
+    }
+
+    @Test
+    public void ignoresAnUnreadableManifest() throws Exception {
+        final File dir = folder.getRoot();
+        final Writer writer = new OutputStreamWriter(new FileOutputStream(new File(dir,
+                ArticleManifest.FILE_NAME_PREFIX + "42.txt")), "UTF-8");
+        try {
+            writer.write("not an article\n10 1000 abc 7 a.dat\n");
+        } finally {
+            writer.close();
+        }
+        final ArticleManifest manifest = ArticleManifest.load(dir, 42, "**/*.dat");
+        // the article configured, whose files are uploaded again
+        assertEquals(42, manifest.getArticleId());
+        assertTrue(entries(manifest).isEmpty());
+    }
+
+    /**
+     * @param manifest a manifest
+     * @return the files of the copy of the manifest, by path
+     */
+    private static Map<String, ArticleManifest.Entry> entries(ArticleManifest manifest) throws Exception {
+        final File copy = manifest.copy();
+        final PathIndex index = PathIndex.load(copy);
+        try {
+            final Map<String, ArticleManifest.Entry> entries = new LinkedHashMap<String, ArticleManifest.Entry>();
+            for (int i = 0; i < index.size(); i++) {
+                if (index.isLast(i)) {
+                    entries.put(index.getPath(i), index.getEntry(i));
+                }
+            }
+            return entries;
+        } finally {
+            index.delete();
+        }
+    }
+
+}
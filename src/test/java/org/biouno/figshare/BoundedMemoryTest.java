@@ -0,0 +1,226 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2015 Bruno P. Kinoshita, BioUno team
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package org.biouno.figshare;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assume.assumeTrue;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import org.junit.Test;
+
+import hudson.FilePath;
+
+/**
+ * <p>
+ * Publishes a synthetic tree with many files in a JVM with a small heap, to
+ * check that the memory used by a publication does not grow with the paths
+ * of the files: the upload window and plan, the checkpoint, the manifest of
+ * the article kept up to date, and the per-file results. The indexes of the
+ * checkpoint and of the manifest take 8 bytes per file.
+ * </p>
+ *
+ * <p>
+ * The tree is published by {@link FigShareCallable}, in parallel, to an
+ * article kept up to date: a publication interrupted half way, resumed, then
+ * repeated without any file changed. It writes many files, so it only runs
+ * when the number of files is set, e.g.
+ * <code>mvn test -Dtest=BoundedMemoryTest -Dorg.biouno.figshare.BoundedMemoryTest.files=200000</code>,
+ * or 5000000 with <code>-Dorg.biouno.figshare.BoundedMemoryTest.heap=256m</code>
+ * for a run with several million files.
+ * </p>
+ *
+ * @author Bruno P. Kinoshita
+ * @since 0.2
+ */
+public class BoundedMemoryTest {
+
+    private static final Integer FILES = Integer.getInteger(BoundedMemoryTest.class.getName() + ".files");
+
+    private static final String HEAP = System.getProperty(BoundedMemoryTest.class.getName() + ".heap", "16m");
+
+    private static final long ARTICLE_ID = 1;
+
+    private static final String PATTERN = "**/*.dat";
+
+    /*
+     * Kept, so that its level is not lost.
+     */
+    private static final Logger LOGGER = Logger.getLogger(FileUploader.class.getName());
+
+    @Test
+    public void publishesResumesAndUpdatesManyFilesWithASmallHeap() throws Exception {
+        assumeTrue("Set " + BoundedMemoryTest.class.getName() + ".files to run it", FILES != null);
+        final File tree = SyntheticTree.create(FILES, 1000, 1);
+        final File jobDirectory = new File(tree, "job");
+        try {
+            if (!jobDirectory.mkdir()) {
+                throw new IOException("Could not create " + jobDirectory);
+            }
+            assertEquals("interrupted publication", 0, fork(tree, jobDirectory, "interrupt"));
+            assertEquals("resumed publication", 0, fork(tree, jobDirectory, "resume"));
+            assertEquals("update", 0, fork(tree, jobDirectory, "update"));
+        } finally {
+            SyntheticTree.delete(tree);
+        }
+    }
+
+    private static int fork(File tree, File jobDirectory, String mode) throws Exception {
+        final String java = new File(new File(System.getProperty("java.home"), "bin"), "java").getPath();
+        final Process process = new ProcessBuilder(Arrays.asList(java, "-Xmx" + HEAP,
+                "-Dorg.biouno.figshare.RequestScheduler.maxRate=1000000", "-cp", System.getProperty("java.class.path"),
+                BoundedMemoryTest.class.getName(), tree.getPath(), jobDirectory.getPath(), mode,
+                String.valueOf(FILES))).inheritIO().start();
+        return process.waitFor();
+    }
+
+    /**
+     * Publishes the files of a synthetic tree to the article kept up to date,
+     * saves its manifest, and exits with a non-zero status if the files
+     * uploaded, or recorded in the manifest, are not the expected ones.
+     *
+     * @param args root of the tree, directory of the manifest,
+     *            <code>interrupt</code>, <code>resume</code> or
+     *            <code>update</code>, and number of files
+     * @throws Exception if the tree cannot be published
+     */
+    public static void main(String[] args) throws Exception {
+        final File tree = new File(args[0]);
+        final File jobDirectory = new File(args[1]);
+        final String mode = args[2];
+        final long files = Long.parseLong(args[3]);
+        final PrintStream log = new PrintStream(new OutputStream() {
+            @Override
+            public void write(int b) {
+            }
+
+            @Override
+            public void write(byte[] b, int off, int len) {
+            }
+        });
+        // the first publication fails half way, without logging every upload that failed
+        final long failAfter = "interrupt".equals(mode) ? files / 2 : Long.MAX_VALUE;
+        if ("interrupt".equals(mode)) {
+            LOGGER.setLevel(Level.SEVERE);
+        }
+        final StubDestination destination = new StubDestination(0) {
+            private final AtomicLong uploads = new AtomicLong();
+
+            @Override
+            public org.biouno.figshare.v1.model.File upload(long articleId, File file) throws Exception {
+                if (uploads.incrementAndGet() > failAfter) {
+                    throw new IOException("Publication interrupted");
+                }
+                return super.upload(articleId, file);
+            }
+        };
+        final ArticleManifest manifest = ArticleManifest.load(jobDirectory, ARTICLE_ID, PATTERN);
+        final File copy = manifest.copy();
+        final AtomicLong completed = new AtomicLong();
+        final PublishResult.Records recorder = new PublishResult.Records() {
+            @Override
+            void manifestEntry(String path, ArticleManifest.Entry entry) throws IOException {
+                manifest.put(path, entry);
+            }
+
+            @Override
+            void completed(String path) {
+                completed.incrementAndGet();
+            }
+
+            @Override
+            void removed(String path) throws IOException {
+                manifest.remove(path);
+            }
+        };
+        boolean interrupted = false;
+        try {
+            final FigShareCallable callable = new FigShareCallable("http://localhost/", 1, PATTERN, "Title",
+                    "Description", "test", null, UploadOptions.of(4, 0, 0, false, false, false), null, ARTICLE_ID,
+                    new FilePath(copy), log).to(destination);
+            try {
+                final PublishResult result = callable.invoke(tree, null);
+                manifest.update(result.getArticleId());
+                result.read(null, recorder);
+            } catch (PublishResult.IncompleteException ie) {
+                interrupted = true;
+                manifest.update(ie.getResult().getArticleId());
+                ie.getResult().read(null, PublishResult.Records.kept(recorder));
+            }
+            manifest.save();
+        } finally {
+            manifest.close();
+            if (!copy.delete()) {
+                System.err.println("Could not delete " + copy);
+            }
+        }
+        final long recorded = count(new File(jobDirectory, ArticleManifest.FILE_NAME_PREFIX + ARTICLE_ID + ".txt"));
+        final boolean expected;
+        if ("interrupt".equals(mode)) {
+            expected = interrupted && destination.getFiles() == failAfter && recorded <= failAfter;
+        } else if ("resume".equals(mode)) {
+            // only the files not uploaded before the interruption
+            expected = !interrupted && destination.getFiles() > 0 && destination.getFiles() < files
+                    && completed.get() == files && recorded == files;
+        } else {
+            expected = !interrupted && destination.getFiles() == 0 && completed.get() == files && recorded == files;
+        }
+        if (!expected) {
+            System.err.println(String.format("%s: uploaded %d file(s), completed %d, %d in the manifest, "
+                    + "interrupted %s, expected %d", mode, destination.getFiles(), completed.get(), recorded,
+                    interrupted, files));
+            System.exit(1);
+        }
+    }
+
+    /**
+     * @param manifest a manifest
+     * @return number of files in the manifest
+     */
+    private static long count(File manifest) throws IOException {
+        final BufferedReader reader = new BufferedReader(new InputStreamReader(new FileInputStream(manifest),
+                "UTF-8"));
+        try {
+            // the article ID first
+            long lines = -1;
+            while (reader.readLine() != null) {
+                lines++;
+            }
+            return lines;
+        } finally {
+            reader.close();
+        }
+    }
+
+}
@@ -0,0 +1,479 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2015 Bruno P. Kinoshita, BioUno team
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package org.biouno.figshare;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+/**
+ * <p>
+ * In-process stand-in for the figshare v1 API, for integration and load
+ * tests. It creates articles and receives the files uploaded to them, without
+ * checking the OAuth signature of the requests.
+ * </p>
+ *
+ * <p>
+ * The latency of every response, a bandwidth cap shared by the request
+ * bodies, and failures of the next uploads can be configured: an HTTP error,
+ * a 429 (Too Many Requests) response with a Retry-After header, or a
+ * connection closed without a response. Request bodies are read whole before
+ * the response, so files uploaded to it should be small.
+ * </p>
+ *
+ * @author Bruno P. Kinoshita
+ * @since 0.2
+ */
+final class FakeFigShareServer {
+
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+
+    private static final Pattern ARTICLES = Pattern.compile(".*/articles/?");
+    private static final Pattern FILES = Pattern.compile(".*/articles/(\\d+)/files/?");
+    private static final Pattern BOUNDARY = Pattern.compile("boundary=\"?([^\";]+)\"?");
+    private static final Pattern FILE_NAME = Pattern.compile("filename=\"([^\"]*)\"");
+    private static final Pattern TITLE = Pattern.compile("\"title\"\\s*:\\s*\"((?:[^\"\\\\]|\\\\.)*)\"");
+
+    private final HttpServer server;
+    private final ExecutorService executor = Executors.newCachedThreadPool();
+
+    private final Map<Long, List<Upload>> articles = new HashMap<Long, List<Upload>>();
+    private long nextFileId = 1;
+
+    private long latencyMillis;
+    private long bytesPerSecond;
+    private long availableAt = System.nanoTime();
+
+    private int failures;
+    private int failureStatus;
+    private int throttles;
+    private int retryAfterSeconds;
+    private int drops;
+
+    private int requests;
+    private int failed;
+    private int throttled;
+    private int dropped;
+    private final AtomicInteger uploading = new AtomicInteger();
+    private int maxConcurrentUploads;
+
+    /**
+     * Start a server on a free port of the loopback interface.
+     *
+     * @throws IOException if the server cannot be started
+     */
+    FakeFigShareServer() throws IOException {
+        server = HttpServer.create(new InetSocketAddress(InetAddress.getByName("127.0.0.1"), 0), 0);
+        server.setExecutor(executor);
+        server.createContext("/", new HttpHandler() {
+            @Override
+            public void handle(HttpExchange exchange) throws IOException {
+                try {
+                    FakeFigShareServer.this.handle(exchange);
+                } catch (InterruptedException ie) {
+                    Thread.currentThread().interrupt();
+                } finally {
+                    exchange.close();
+                }
+            }
+        });
+        server.start();
+    }
+
+    /**
+     * @return the endpoint to configure, with a trailing slash
+     */
+    String getEndpoint() {
+        return "http://127.0.0.1:" + server.getAddress().getPort() + "/";
+    }
+
+    /**
+     * Stop the server.
+     */
+    void stop() {
+        server.stop(0);
+        executor.shutdownNow();
+    }
+
+    /**
+     * @param latencyMillis milliseconds added to every response
+     */
+    synchronized void setLatency(long latencyMillis) {
+        this.latencyMillis = latencyMillis;
+    }
+
+    /**
+     * @param bytesPerSecond bytes per second read from all the request bodies
+     *            together, or 0 for no cap
+     */
+    synchronized void setBytesPerSecond(long bytesPerSecond) {
+        this.bytesPerSecond = bytesPerSecond;
+    }
+
+    /**
+     * @param count number of the next uploads that fail
+     * @param status HTTP status of the failures
+     */
+    synchronized void failUploads(int count, int status) {
+        this.failures = count;
+        this.failureStatus = status;
+    }
+
+    /**
+     * @param count number of the next uploads answered with 429 (Too Many
+     *            Requests)
+     * @param retryAfterSeconds Retry-After header of the responses
+     */
+    synchronized void throttleUploads(int count, int retryAfterSeconds) {
+        this.throttles = count;
+        this.retryAfterSeconds = retryAfterSeconds;
+    }
+
+    /**
+     * @param count number of the next uploads whose connection is closed
+     *            without a response
+     */
+    synchronized void dropUploads(int count) {
+        this.drops = count;
+    }
+
+    /**
+     * @return number of articles created
+     */
+    synchronized int getArticles() {
+        return articles.size();
+    }
+
+    /**
+     * @param articleId figshare article ID
+     * @return names of the files uploaded to the article, in the order they
+     *         were received
+     */
+    synchronized List<String> getFiles(long articleId) {
+        final List<String> names = new ArrayList<String>();
+        final List<Upload> uploads = articles.get(articleId);
+        if (uploads != null) {
+            for (Upload upload : uploads) {
+                names.add(upload.name);
+            }
+        }
+        return names;
+    }
+
+    /**
+     * @param articleId figshare article ID
+     * @return bytes uploaded to the article
+     */
+    synchronized long getBytes(long articleId) {
+        long bytes = 0;
+        final List<Upload> uploads = articles.get(articleId);
+        if (uploads != null) {
+            for (Upload upload : uploads) {
+                bytes += upload.size;
+            }
+        }
+        return bytes;
+    }
+
+    /**
+     * @return number of requests received
+     */
+    synchronized int getRequests() {
+        return requests;
+    }
+
+    /**
+     * @return number of uploads failed on purpose
+     */
+    synchronized int getFailed() {
+        return failed;
+    }
+
+    /**
+     * @return number of uploads answered with 429
+     */
+    synchronized int getThrottled() {
+        return throttled;
+    }
+
+    /**
+     * @return number of uploads whose connection was closed
+     */
+    synchronized int getDropped() {
+        return dropped;
+    }
+
+    /**
+     * @return largest number of uploads received at the same time
+     */
+    synchronized int getMaxConcurrentUploads() {
+        return maxConcurrentUploads;
+    }
+
+    private void handle(HttpExchange exchange) throws IOException, InterruptedException {
+        final String path = exchange.getRequestURI().getPath();
+        final String method = exchange.getRequestMethod();
+        final boolean write = "POST".equals(method) || "PUT".equals(method);
+        synchronized (this) {
+            requests++;
+        }
+        final Matcher files = FILES.matcher(path);
+        if (write && files.matches()) {
+            final int running = uploading.incrementAndGet();
+            try {
+                synchronized (this) {
+                    maxConcurrentUploads = Math.max(maxConcurrentUploads, running);
+                }
+                upload(exchange, Long.parseLong(files.group(1)));
+            } finally {
+                uploading.decrementAndGet();
+            }
+        } else if (write && ARTICLES.matcher(path).matches()) {
+            createArticle(exchange);
+        } else {
+            read(exchange.getRequestBody());
+            respond(exchange, 404, "{\"error\": \"No such resource " + path + "\"}");
+        }
+    }
+
+    private void createArticle(HttpExchange exchange) throws IOException, InterruptedException {
+        final String body = new String(read(exchange.getRequestBody()), UTF8);
+        final Matcher title = TITLE.matcher(body);
+        final long articleId;
+        synchronized (this) {
+            articleId = articles.size() + 1;
+            articles.put(articleId, new ArrayList<Upload>());
+        }
+        respond(exchange, 200, String.format("{\"article_id\": %d, \"title\": \"%s\", \"defined_type\": \"dataset\", "
+                + "\"status\": \"Drafts\", \"version\": 1}", articleId, title.find() ? title.group(1) : ""));
+    }
+
+    private void upload(HttpExchange exchange, long articleId) throws IOException, InterruptedException {
+        final byte[] body = read(exchange.getRequestBody());
+        final int status;
+        final boolean drop;
+        synchronized (this) {
+            drop = drops > 0;
+            if (drop) {
+                drops--;
+                dropped++;
+                status = 0;
+            } else if (throttles > 0) {
+                throttles--;
+                throttled++;
+                status = 429;
+            } else if (failures > 0) {
+                failures--;
+                failed++;
+                status = failureStatus;
+            } else {
+                status = 200;
+            }
+        }
+        if (drop) {
+            // closed by the handler, without a response
+            return;
+        }
+        if (status == 429) {
+            exchange.getResponseHeaders().set("Retry-After", String.valueOf(retryAfterSeconds));
+            respond(exchange, status, "{\"error\": \"Too many requests\"}");
+            return;
+        }
+        if (status != 200) {
+            respond(exchange, status, "{\"error\": \"Injected failure\"}");
+            return;
+        }
+        final Upload upload = parse(exchange.getRequestHeaders().getFirst("Content-Type"), body);
+        final long fileId;
+        synchronized (this) {
+            final List<Upload> uploads = articles.get(articleId);
+            if (uploads == null) {
+                fileId = -1;
+            } else {
+                fileId = nextFileId++;
+                uploads.add(upload);
+            }
+        }
+        if (fileId < 0) {
+            respond(exchange, 404, "{\"error\": \"No such article " + articleId + "\"}");
+            return;
+        }
+        final int dot = upload.name.lastIndexOf('.');
+        respond(exchange, 200, String.format("{\"id\": %d, \"name\": \"%s\", \"size\": \"%s\", "
+                + "\"mime_type\": \"application/octet-stream\", \"extension\": \"%s\"}", fileId, upload.name,
+                size(upload.size), dot >= 0 ? upload.name.substring(dot + 1) : ""));
+    }
+
+    /**
+     * @param contentType content type of the request
+     * @param body request body
+     * @return the file of a multipart request, or the whole body
+     */
+    private static Upload parse(String contentType, byte[] body) {
+        final Matcher boundary = contentType != null ? BOUNDARY.matcher(contentType) : null;
+        if (boundary == null || !contentType.startsWith("multipart/") || !boundary.find()) {
+            return new Upload("file", body.length);
+        }
+        final byte[] delimiter = ("--" + boundary.group(1)).getBytes(UTF8);
+        final byte[] separator = "\r\n\r\n".getBytes(UTF8);
+        int part = indexOf(body, delimiter, 0);
+        while (part >= 0) {
+            final int headers = part + delimiter.length;
+            final int content = indexOf(body, separator, headers);
+            if (content < 0) {
+                break;
+            }
+            final String header = new String(body, headers, content - headers, UTF8);
+            final int next = indexOf(body, delimiter, content + separator.length);
+            final Matcher name = FILE_NAME.matcher(header);
+            if (next >= 0 && name.find()) {
+                // the part content ends with a CRLF before the delimiter
+                return new Upload(name.group(1), next - 2 - content - separator.length);
+            }
+            part = next;
+        }
+        return new Upload("file", body.length);
+    }
+
+    private static int indexOf(byte[] data, byte[] pattern, int from) {
+        outer: for (int i = from; i <= data.length - pattern.length; i++) {
+            for (int j = 0; j < pattern.length; j++) {
+                if (data[i + j] != pattern[j]) {
+                    continue outer;
+                }
+            }
+            return i;
+        }
+        return -1;
+    }
+
+    /**
+     * @param bytes file size
+     * @return the size as figshare reports it, e.g. <code>1.53 KB</code>
+     */
+    private static String size(long bytes) {
+        if (bytes < 1024) {
+            return bytes + " B";
+        }
+        final String[] units = { "KB", "MB", "GB" };
+        double value = bytes / 1024d;
+        int unit = 0;
+        while (value >= 1024 && unit < units.length - 1) {
+            value /= 1024;
+            unit++;
+        }
+        return String.format(Locale.ENGLISH, "%.2f %s", value, units[unit]);
+    }
+
+    /**
+     * Read a request body, within the bandwidth cap.
+     *
+     * @param in request body
+     * @return the body
+     */
+    private byte[] read(InputStream in) throws IOException, InterruptedException {
+        final ByteArrayOutputStream body = new ByteArrayOutputStream();
+        final byte[] buffer = new byte[8 * 1024];
+        int n;
+        while ((n = in.read(buffer)) != -1) {
+            body.write(buffer, 0, n);
+            throttle(n);
+        }
+        return body.toByteArray();
+    }
+
+    /**
+     * Wait until the bytes read fit in the bandwidth cap, shared by every
+     * request.
+     *
+     * @param bytes bytes read
+     */
+    private void throttle(int bytes) throws InterruptedException {
+        final long until;
+        synchronized (this) {
+            if (bytesPerSecond <= 0) {
+                return;
+            }
+            final long now = System.nanoTime();
+            availableAt = Math.max(availableAt, now) + TimeUnit.SECONDS.toNanos(bytes) / bytesPerSecond;
+            until = availableAt;
+        }
+        final long wait = until - System.nanoTime();
+        if (wait > 0) {
+            TimeUnit.NANOSECONDS.sleep(wait);
+        }
+    }
+
+    private void respond(HttpExchange exchange, int status, String json) throws IOException, InterruptedException {
+        final long latency;
+        synchronized (this) {
+            latency = latencyMillis;
+        }
+        if (latency > 0) {
+            Thread.sleep(latency);
+        }
+        final byte[] body = json.getBytes(UTF8);
+        exchange.getResponseHeaders().set("Content-Type", "application/json; charset=UTF-8");
+        exchange.sendResponseHeaders(status, body.length);
+        final OutputStream out = exchange.getResponseBody();
+        try {
+            out.write(body);
+        } finally {
+            out.close();
+        }
+    }
+
+    /**
+     * A file received.
+     */
+    private static final class Upload {
+        private final String name;
+        private final long size;
+
+        Upload(String name, long size) {
+            this.name = name;
+            this.size = size;
+        }
+    }
+
+}
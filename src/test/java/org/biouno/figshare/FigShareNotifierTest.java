@@ -0,0 +1,145 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2015 Bruno P. Kinoshita, BioUno team
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package org.biouno.figshare;
+
+import static org.junit.Assert.assertEquals;
+
+import org.biouno.figshare.credentials.FigShareOAuthCredentialsImpl;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.jvnet.hudson.test.JenkinsRule;
+
+import com.cloudbees.plugins.credentials.SystemCredentialsProvider;
+
+import hudson.model.FreeStyleProject;
+import hudson.util.FormValidation;
+
+/**
+ * Tests for the configuration of {@link FigShareNotifier}.
+ *
+ * @author Bruno P. Kinoshita
+ * @since 0.2
+ */
+public class FigShareNotifierTest {
+
+    @Rule
+    public JenkinsRule j = new JenkinsRule();
+
+    @Before
+    public void setUp() throws Exception {
+        SystemCredentialsProvider.getInstance().getCredentials().add(new FigShareOAuthCredentialsImpl("figshare",
+                "figshare", "figshare account", "clientKey", "clientSecret", "tokenKey", "tokenSecret"));
+        SystemCredentialsProvider.getInstance().save();
+    }
+
+    @Test
+    public void configRoundtrip() throws Exception {
+        final FigShareNotifier before = new FigShareNotifier("figshare", "Results", "Results of the build",
+                "results/**/*.csv");
+        before.setUploadThreads(4);
+        before.setAdaptiveConcurrency(true);
+        before.setSkipUnchangedFiles(true);
+        before.setPublishInBackground(true);
+        before.setBundleSize(16);
+        before.setCompressionLevel(1);
+        before.setSkipCompressedFiles(true);
+        before.setUpdateArticle(true);
+        before.setArticleId(42);
+        before.setVerifyUploads(true);
+        before.setPriority(PublishPriority.HIGH);
+        before.setPublishArtifacts(true);
+        before.setShardLabel("linux");
+        final FreeStyleProject project = j.createFreeStyleProject();
+        project.getPublishersList().add(before);
+        j.configRoundtrip(project);
+        final FigShareNotifier after = project.getPublishersList().get(FigShareNotifier.class);
+        j.assertEqualDataBoundBeans(before, after);
+        j.assertEqualBeans(before, after, "uploadThreads,adaptiveConcurrency,skipUnchangedFiles,publishInBackground,"
+                + "bundleSize,compressionLevel,skipCompressedFiles,updateArticle,articleId,verifyUploads,priority,"
+                + "publishArtifacts,shardLabel");
+    }
+
+    @Test
+    public void configRoundtripWithDefaults() throws Exception {
+        final FigShareNotifier before = new FigShareNotifier("figshare", "Results", "", "*.csv");
+        final FreeStyleProject project = j.createFreeStyleProject();
+        project.getPublishersList().add(before);
+        j.configRoundtrip(project);
+        final FigShareNotifier after = project.getPublishersList().get(FigShareNotifier.class);
+        assertEquals(FigShareNotifier.DescriptorImpl.DEFAULT_UPLOAD_THREADS, after.getUploadThreads());
+        assertEquals(FigShareNotifier.DescriptorImpl.DEFAULT_COMPRESSION_LEVEL, after.getCompressionLevel());
+        assertEquals(0, after.getArticleId());
+        assertEquals(PublishPriority.NORMAL, after.getPriority());
+    }
+
+    @Test
+    public void globalConfigRoundtrip() throws Exception {
+        final FigShareNotifier.DescriptorImpl descriptor = j.jenkins
+                .getDescriptorByType(FigShareNotifier.DescriptorImpl.class);
+        descriptor.setEndpoint("http://figshare.example.org/api");
+        descriptor.setMaxPublications(2);
+        descriptor.setMaxPublicationsPerCredential(1);
+        descriptor.setMaxUploadRate(512);
+        j.configRoundtrip();
+        assertEquals("http://figshare.example.org/api/", descriptor.getEndpoint());
+        assertEquals(FigShareNotifier.DescriptorImpl.DEFAULT_API_VERSION, descriptor.getApiVersion());
+        assertEquals(2, descriptor.getMaxPublications());
+        assertEquals(1, descriptor.getMaxPublicationsPerCredential());
+        assertEquals(512, descriptor.getMaxUploadRate());
+        assertEquals(512 * 1024, descriptor.getMaxBytesPerSecond());
+    }
+
+    @Test
+    public void requiresAMaximumOfPublicationsForTheUploadRateBudget() {
+        final FigShareNotifier.DescriptorImpl descriptor = j.jenkins
+                .getDescriptorByType(FigShareNotifier.DescriptorImpl.class);
+        assertEquals(FormValidation.Kind.OK, descriptor.doCheckMaxUploadRate("0", "0").kind);
+        assertEquals(FormValidation.Kind.OK, descriptor.doCheckMaxUploadRate("512", "2").kind);
+        assertEquals(FormValidation.Kind.ERROR, descriptor.doCheckMaxUploadRate("512", "0").kind);
+        assertEquals(FormValidation.Kind.ERROR, descriptor.doCheckMaxUploadRate("-1", "2").kind);
+        assertEquals(FormValidation.Kind.ERROR, descriptor.doCheckMaxUploadRate(null, null).kind);
+    }
+
+    @Test
+    public void validatesTheJobSettings() {
+        final FigShareNotifier.DescriptorImpl descriptor = j.jenkins
+                .getDescriptorByType(FigShareNotifier.DescriptorImpl.class);
+        assertEquals(FormValidation.Kind.OK, descriptor.doCheckCompressionLevel("9").kind);
+        assertEquals(FormValidation.Kind.ERROR, descriptor.doCheckCompressionLevel("10").kind);
+        assertEquals(FormValidation.Kind.OK, descriptor.doCheckArticleId("0").kind);
+        assertEquals(FormValidation.Kind.ERROR, descriptor.doCheckArticleId("-1").kind);
+        assertEquals(FormValidation.Kind.ERROR, descriptor.doCheckArticleId("article").kind);
+        assertEquals(FormValidation.Kind.ERROR, descriptor.doCheckArticleId(null).kind);
+        assertEquals(FormValidation.Kind.ERROR, descriptor.doCheckCompressionLevel(null).kind);
+        assertEquals(FormValidation.Kind.OK, descriptor.doCheckCompressionLevel(" 1 ").kind);
+        assertEquals(FormValidation.Kind.OK, descriptor.doCheckShardLabel("").kind);
+        assertEquals(FormValidation.Kind.WARNING, descriptor.doCheckShardLabel("nowhere").kind);
+        assertEquals(FormValidation.Kind.ERROR, descriptor.doCheckShardLabel("a &&").kind);
+        assertEquals(FormValidation.Kind.OK, descriptor.doCheckPublishInBackground(true, true).kind);
+        assertEquals(FormValidation.Kind.OK, descriptor.doCheckPublishInBackground(false, false).kind);
+        assertEquals(FormValidation.Kind.WARNING, descriptor.doCheckPublishInBackground(true, false).kind);
+    }
+
+}
@@ -0,0 +1,281 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2015 Bruno P. Kinoshita, BioUno team
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package org.biouno.figshare;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import org.biouno.figshare.FigSharePublishAction.Status;
+import org.biouno.figshare.credentials.FigShareOAuthCredentialsImpl;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.jvnet.hudson.test.JenkinsRule;
+import org.jvnet.hudson.test.TestBuilder;
+
+import com.cloudbees.plugins.credentials.SystemCredentialsProvider;
+
+import hudson.FilePath;
+import hudson.Launcher;
+import hudson.model.AbstractBuild;
+import hudson.model.BuildListener;
+import hudson.model.FreeStyleBuild;
+import hudson.model.FreeStyleProject;
+import hudson.model.Result;
+import hudson.tasks.ArtifactArchiver;
+
+/**
+ * Runs {@link FigShareNotifier#perform} end to end, against a
+ * {@link FakeFigShareServer} configured as the figshare endpoint.
+ *
+ * @author Bruno P. Kinoshita
+ * @since 0.2
+ */
+public class FigSharePublicationTest {
+
+    private static final int FILE_SIZE = 8 * 1024;
+
+    @Rule
+    public JenkinsRule j = new JenkinsRule();
+
+    private FakeFigShareServer figshare;
+
+    @Before
+    public void setUp() throws Exception {
+        SystemCredentialsProvider.getInstance().getCredentials().add(new FigShareOAuthCredentialsImpl("figshare",
+                "figshare", "figshare account", "clientKey", "clientSecret", "tokenKey", "tokenSecret"));
+        SystemCredentialsProvider.getInstance().save();
+        figshare = new FakeFigShareServer();
+        j.jenkins.getDescriptorByType(FigShareNotifier.DescriptorImpl.class).setEndpoint(figshare.getEndpoint());
+    }
+
+    @After
+    public void tearDown() {
+        figshare.stop();
+    }
+
+    @Test
+    public void publishesTheWorkspace() throws Exception {
+        final FreeStyleProject project = project(new FigShareNotifier("figshare", "Results", "", "*.dat"),
+                "a.dat", "b.dat", "c.txt");
+        final FreeStyleBuild build = j.buildAndAssertSuccess(project);
+        j.assertLogContains("Article 1 created!", build);
+        assertEquals(1, figshare.getArticles());
+        assertEquals("[a.dat, b.dat]", sorted(figshare.getFiles(1)));
+        final FigSharePublishAction action = build.getAction(FigSharePublishAction.class);
+        assertEquals(Status.PUBLISHED, action.getStatus());
+        assertEquals(1, action.getArticleId());
+        assertEquals(2, action.getStatistics().getFiles());
+    }
+
+    @Test
+    public void skipsAnEmptyArticle() throws Exception {
+        final FreeStyleProject project = project(new FigShareNotifier("figshare", "Results", "", "*.csv"),
+                "a.dat");
+        j.assertLogContains("Skip creating an empty figshare article", j.buildAndAssertSuccess(project));
+        assertEquals(0, figshare.getArticles());
+    }
+
+    @Test
+    public void resumesAFailedPublication() throws Exception {
+        final FreeStyleProject project = project(new FigShareNotifier("figshare", "Results", "", "*.dat"),
+                "a.dat", "b.dat", "c.dat");
+        figshare.failUploads(1, 500);
+        final FreeStyleBuild failed = j.assertBuildStatus(Result.FAILURE, project.scheduleBuild2(0).get());
+        j.assertLogContains("1 of 3 files failed to upload to figshare article 1", failed);
+        assertEquals(2, figshare.getFiles(1).size());
+
+        final FreeStyleBuild resumed = j.buildAndAssertSuccess(project);
+        j.assertLogContains("Resuming previous upload to article 1", resumed);
+        assertEquals(1, figshare.getArticles());
+        assertEquals("[a.dat, b.dat, c.dat]", sorted(figshare.getFiles(1)));
+    }
+
+    @Test
+    public void resumesAfterAConnectionWasDropped() throws Exception {
+        final FreeStyleProject project = project(new FigShareNotifier("figshare", "Results", "", "*.dat"),
+                "a.dat", "b.dat");
+        // HttpURLConnection may send a request once more by itself when the
+        // connection is closed, so the first file fails either way
+        figshare.dropUploads(2);
+        // the upload may have been processed, so the plug-in does not send it again
+        j.assertBuildStatus(Result.FAILURE, project.scheduleBuild2(0).get());
+        assertEquals(2, figshare.getDropped());
+        j.buildAndAssertSuccess(project);
+        assertEquals(1, figshare.getArticles());
+        assertEquals("[a.dat, b.dat]", sorted(figshare.getFiles(1)));
+    }
+
+    @Test
+    public void retriesWhenFigshareIsUnavailable() throws Exception {
+        final FreeStyleProject project = project(new FigShareNotifier("figshare", "Results", "", "*.dat"),
+                "a.dat", "b.dat");
+        figshare.failUploads(1, 503);
+        j.assertLogContains("retrying", j.buildAndAssertSuccess(project));
+        assertEquals(1, figshare.getFailed());
+        assertEquals("[a.dat, b.dat]", sorted(figshare.getFiles(1)));
+    }
+
+    @Test
+    public void retriesWhenThrottled() throws Exception {
+        final FreeStyleProject project = project(new FigShareNotifier("figshare", "Results", "", "*.dat"),
+                "a.dat", "b.dat");
+        figshare.throttleUploads(2, 1);
+        final FreeStyleBuild build = j.buildAndAssertSuccess(project);
+        j.assertLogContains("retrying", build);
+        assertEquals(2, figshare.getThrottled());
+        assertEquals("[a.dat, b.dat]", sorted(figshare.getFiles(1)));
+        assertEquals(2, build.getAction(FigSharePublishAction.class).getStatistics().getRetries());
+    }
+
+    @Test
+    public void uploadsInParallel() throws Exception {
+        final FigShareNotifier notifier = new FigShareNotifier("figshare", "Results", "", "*.dat");
+        notifier.setUploadThreads(4);
+        final FreeStyleProject project = project(notifier, "a.dat", "b.dat", "c.dat", "d.dat", "e.dat", "f.dat");
+        figshare.setLatency(300);
+        j.buildAndAssertSuccess(project);
+        assertEquals(6, figshare.getFiles(1).size());
+        assertTrue(figshare.getMaxConcurrentUploads() > 1);
+    }
+
+    @Test
+    public void verifiesUploadsOverASlowLink() throws Exception {
+        final FigShareNotifier notifier = new FigShareNotifier("figshare", "Results", "", "*.dat");
+        notifier.setUploadThreads(2);
+        notifier.setVerifyUploads(true);
+        final FreeStyleProject project = project(notifier, "a.dat", "b.dat", "c.dat");
+        figshare.setBytesPerSecond(16 * 1024);
+        final long start = System.currentTimeMillis();
+        final FreeStyleBuild build = j.buildAndAssertSuccess(project);
+        // three files of 8 KB, and the multipart envelopes
+        assertTrue(System.currentTimeMillis() - start >= 1000);
+        j.assertLogNotContains("failed verification", build);
+        assertEquals(3 * FILE_SIZE, figshare.getBytes(1));
+    }
+
+    @Test
+    public void updatesOnlyTheFilesChanged() throws Exception {
+        final FigShareNotifier notifier = new FigShareNotifier("figshare", "Results", "", "*.dat");
+        notifier.setUpdateArticle(true);
+        final FreeStyleProject project = project(notifier, "a.dat", "b.dat");
+        project.getBuildersList().add(new TestBuilder() {
+            @Override
+            public boolean perform(AbstractBuild<?, ?> build, Launcher launcher, BuildListener listener)
+                    throws InterruptedException, IOException {
+                // changed by every build, in size too, in case builds run within the
+                // resolution of the file modification times
+                final StringBuilder content = new StringBuilder();
+                for (int i = 0; i < build.getNumber(); i++) {
+                    content.append("build\n");
+                }
+                build.getWorkspace().child("c.dat").write(content.toString(), "UTF-8");
+                return true;
+            }
+        });
+        j.buildAndAssertSuccess(project);
+        assertEquals("[a.dat, b.dat, c.dat]", sorted(figshare.getFiles(1)));
+
+        final FreeStyleBuild update = j.buildAndAssertSuccess(project);
+        j.assertLogContains("Updating article 1", update);
+        j.assertLogContains("2 file(s) unchanged in article 1", update);
+        assertEquals(1, figshare.getArticles());
+        assertEquals("[a.dat, b.dat, c.dat, c.dat]", sorted(figshare.getFiles(1)));
+    }
+
+    @Test
+    public void publishesTheArtifactsInTheBackground() throws Exception {
+        final FigShareNotifier notifier = new FigShareNotifier("figshare", "Results", "", "*.dat");
+        notifier.setPublishInBackground(true);
+        notifier.setPublishArtifacts(true);
+        final FreeStyleProject project = project(null, "a.dat", "b.dat");
+        project.getPublishersList().add(new ArtifactArchiver("*.dat", "", false));
+        project.getPublishersList().add(notifier);
+        final FreeStyleBuild build = j.buildAndAssertSuccess(project);
+        j.assertLogContains("figshare publication queued", build);
+        final FigSharePublishAction action = build.getAction(FigSharePublishAction.class);
+        for (int i = 0; i < 300 && action.getStatus() != Status.PUBLISHED && action.getStatus() != Status.FAILED;
+                i++) {
+            Thread.sleep(100);
+        }
+        assertEquals(action.getMessage(), Status.PUBLISHED, action.getStatus());
+        assertEquals("[a.dat, b.dat]", sorted(figshare.getFiles(1)));
+    }
+
+    @Test
+    public void publishesTheWorkspaceBeforeTheBuildFinishes() throws Exception {
+        final FigShareNotifier notifier = new FigShareNotifier("figshare", "Results", "", "*.dat");
+        notifier.setPublishInBackground(true);
+        final FreeStyleBuild build = j.buildAndAssertSuccess(project(notifier, "a.dat"));
+        j.assertLogContains("Only archived artifacts are published in the background", build);
+        assertEquals(Status.PUBLISHED, build.getAction(FigSharePublishAction.class).getStatus());
+        assertEquals("[a.dat]", figshare.getFiles(1).toString());
+    }
+
+    /**
+     * @param notifier the notifier, or <code>null</code> to add it later
+     * @param files names of the files the builds write to the workspace
+     * @return a project that writes the files, unless they exist, so that
+     *         their modification time does not change from one build to the
+     *         next, then publishes them
+     */
+    private FreeStyleProject project(FigShareNotifier notifier, final String... files) throws IOException {
+        final FreeStyleProject project = j.createFreeStyleProject();
+        project.getBuildersList().add(new TestBuilder() {
+            @Override
+            public boolean perform(AbstractBuild<?, ?> build, Launcher launcher, BuildListener listener)
+                    throws InterruptedException, IOException {
+                for (String name : files) {
+                    final FilePath file = build.getWorkspace().child(name);
+                    if (!file.exists()) {
+                        final StringBuilder content = new StringBuilder(FILE_SIZE);
+                        while (content.length() < FILE_SIZE) {
+                            content.append(name).append('\n');
+                        }
+                        content.setLength(FILE_SIZE);
+                        file.write(content.toString(), "UTF-8");
+                    }
+                }
+                return true;
+            }
+        });
+        if (notifier != null) {
+            project.getPublishersList().add(notifier);
+        }
+        return project;
+    }
+
+    private static String sorted(List<String> names) {
+        final List<String> sorted = new ArrayList<String>(names);
+        Collections.sort(sorted);
+        return sorted.toString();
+    }
+
+}
@@ -0,0 +1,76 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2015 Bruno P. Kinoshita, BioUno team
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package org.biouno.figshare;
+
+import org.biouno.figshare.credentials.FigShareOAuthCredentialsImpl;
+import org.jenkinsci.plugins.workflow.steps.StepConfigTester;
+import org.junit.Rule;
+import org.junit.Test;
+import org.jvnet.hudson.test.JenkinsRule;
+
+import com.cloudbees.plugins.credentials.SystemCredentialsProvider;
+
+/**
+ * Tests for the configuration of {@link FigSharePublishStep}.
+ *
+ * @author Bruno P. Kinoshita
+ * @since 0.2
+ */
+public class FigSharePublishStepTest {
+
+    @Rule
+    public JenkinsRule j = new JenkinsRule();
+
+    @Test
+    public void configRoundTrip() throws Exception {
+        SystemCredentialsProvider.getInstance().getCredentials().add(new FigShareOAuthCredentialsImpl("figshare",
+                "figshare", "figshare account", "clientKey", "clientSecret", "tokenKey", "tokenSecret"));
+        SystemCredentialsProvider.getInstance().save();
+        final StepConfigTester tester = new StepConfigTester(j);
+
+        final FigSharePublishStep defaults = new FigSharePublishStep("figshare", "Results", "", "*.csv");
+        j.assertEqualDataBoundBeans(defaults, tester.configRoundTrip(defaults));
+
+        final FigSharePublishStep step = new FigSharePublishStep("figshare", "Results", "Results of the build",
+                "results/**/*.csv");
+        step.setUploadThreads(4);
+        step.setAdaptiveConcurrency(true);
+        step.setSkipUnchangedFiles(true);
+        step.setBundleSize(16);
+        step.setCompressionLevel(1);
+        step.setSkipCompressedFiles(true);
+        step.setUpdateArticle(true);
+        step.setArticleId(42);
+        step.setVerifyUploads(true);
+        step.setPriority(PublishPriority.LOW);
+        step.setPublishArtifacts(true);
+        step.setShardLabel("linux");
+        final FigSharePublishStep after = tester.configRoundTrip(step);
+        j.assertEqualDataBoundBeans(step, after);
+        j.assertEqualBeans(step, after, "uploadThreads,adaptiveConcurrency,skipUnchangedFiles,bundleSize,"
+                + "compressionLevel,skipCompressedFiles,updateArticle,articleId,verifyUploads,priority,"
+                + "publishArtifacts,shardLabel");
+    }
+
+}
@@ -0,0 +1,143 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2015 Bruno P. Kinoshita, BioUno team
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package org.biouno.figshare;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Set;
+import java.util.TreeSet;
+
+import org.apache.tools.ant.DirectoryScanner;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+/**
+ * Tests for {@link FileFinder} and {@link AntPattern}, which must find the
+ * same files as the Ant {@link DirectoryScanner} with its default excludes.
+ *
+ * @author Bruno P. Kinoshita
+ * @since 0.2
+ */
+public class FileFinderTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private File base;
+
+    @Before
+    public void setUp() throws IOException {
+        base = folder.getRoot();
+        for (String path : Arrays.asList("a.dat", "b.txt", "weird name.dat", "dir/c.dat", "dir/g.dat~",
+                "dir/#h.dat#", "dir/.DS_Store", "dir/sub/d.dat", "dir/sub/e.txt", "dir/sub/deep/j.dat",
+                "dir.dat/i.txt", "other/f.dat", "other/F.DAT", ".git/config", ".git/objects/x.dat", ".svn/y.dat",
+                "CVS/z.dat", "dir/CVS/Entries")) {
+            final File file = new File(base, path);
+            assertTrue(file.getParentFile().isDirectory() || file.getParentFile().mkdirs());
+            assertTrue(file.createNewFile());
+        }
+    }
+
+    @Test
+    public void findsTheFilesAntFinds() throws Exception {
+        for (String includes : Arrays.asList("**/*.dat", "*.dat", "dir/**", "dir/", "dir/*/*.dat", "**/sub/**",
+                "**/*.dat, **/*.txt", "d?r/**/*.dat", "other/f.dat", "**", "**/*.DAT", "dir/**/deep/*",
+                "**/*.dat/**", "nothing/**", "*", "dir\\*.dat",
+                "dir/**/**", "**/**/*.txt")) {
+            assertEquals(includes, scanWithAnt(includes), scan(includes));
+        }
+    }
+
+    @Test
+    public void ignoresALeadingDotOrSlash() throws Exception {
+        // Ant finds nothing
+        assertEquals(scanWithAnt("dir/*.dat"), scan("./dir/*.dat"));
+        assertEquals(scanWithAnt("dir/*.dat"), scan("/dir/*.dat"));
+    }
+
+    @Test
+    public void countsTheFilesFound() throws Exception {
+        assertEquals(6, new FileFinder("**/*.dat").scan(base, new FileFinder.Handler() {
+            @Override
+            public void found(String path, File file) {
+                assertEquals(new File(base, path), file);
+            }
+        }));
+    }
+
+    @Test
+    public void skipsDirectoriesThatCannotMatch() {
+        final AntPattern pattern = new AntPattern("dir/*/*.dat");
+        assertTrue(pattern.mayMatchUnder(""));
+        assertTrue(pattern.mayMatchUnder("dir"));
+        assertTrue(pattern.mayMatchUnder("dir/sub"));
+        assertFalse(pattern.mayMatchUnder("dir/sub/deep"));
+        assertFalse(pattern.mayMatchUnder("other"));
+        assertTrue(new AntPattern("**/sub/*.dat").mayMatchUnder("other/deep/er"));
+        assertTrue(new AntPattern("dir/**/*.dat").mayMatchUnder("dir/sub/deep"));
+        assertFalse(new AntPattern("dir/**/*.dat").mayMatchUnder("other/sub"));
+    }
+
+    @Test
+    public void compilesCommaSeparatedPatterns() {
+        final List<AntPattern> patterns = AntPattern.compile(" **/*.dat, ,dir/ ");
+        assertEquals(2, patterns.size());
+        assertEquals("**/*.dat", patterns.get(0).toString());
+        assertEquals("dir/**", patterns.get(1).toString());
+        assertTrue(AntPattern.compile(null).isEmpty());
+    }
+
+    private Set<String> scan(String includes) throws Exception {
+        final Set<String> found = new TreeSet<String>();
+        new FileFinder(includes).scan(base, new FileFinder.Handler() {
+            @Override
+            public void found(String path, File file) {
+                found.add(path);
+            }
+        });
+        return found;
+    }
+
+    private Set<String> scanWithAnt(String includes) {
+        final DirectoryScanner scanner = new DirectoryScanner();
+        scanner.setBasedir(base);
+        scanner.setIncludes(includes.split("\\s*,\\s*"));
+        scanner.addDefaultExcludes();
+        scanner.scan();
+        final Set<String> found = new TreeSet<String>();
+        for (String path : scanner.getIncludedFiles()) {
+            found.add(path.replace(File.separatorChar, '/'));
+        }
+        return found;
+    }
+
+}
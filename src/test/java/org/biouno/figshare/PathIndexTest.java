@@ -0,0 +1,125 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2015 Bruno P. Kinoshita, BioUno team
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package org.biouno.figshare;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+/**
+ * Tests for {@link PathIndex}.
+ *
+ * @author Bruno P. Kinoshita
+ * @since 0.2
+ */
+public class PathIndexTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void findsTheLastLineOfAPath() throws Exception {
+        final File file = write("42",
+                PathIndex.format("a.dat", new ArticleManifest.Entry(10, 1000, "abc", "7")),
+                PathIndex.format("dir/name with spaces.dat", new ArticleManifest.Entry(20, 2000, null, null)),
+                PathIndex.format("a.dat", new ArticleManifest.Entry(11, 1001, "def", "8")));
+        final PathIndex index = PathIndex.load(file);
+        try {
+            assertEquals("42", index.getHeader());
+            assertEquals(3, index.size());
+            final ArticleManifest.Entry a = index.get("a.dat");
+            assertEquals(11, a.getSize());
+            assertEquals("def", a.getDigest());
+            assertEquals("8", a.getFileId());
+            final ArticleManifest.Entry spaces = index.get("dir/name with spaces.dat");
+            assertEquals(20, spaces.getSize());
+            assertNull(spaces.getDigest());
+            assertNull(index.get("b.dat"));
+            int last = 0;
+            for (int i = 0; i < index.size(); i++) {
+                if (index.isLast(i)) {
+                    last++;
+                }
+            }
+            assertEquals(2, last);
+            assertTrue(index.isLast(index.indexOf("a.dat")));
+            assertEquals("a.dat", index.getPath(index.indexOf("a.dat")));
+        } finally {
+            index.delete();
+        }
+        assertFalse(file.exists());
+    }
+
+    @Test
+    public void ignoresALineNotCompletelyWritten() throws Exception {
+        final File file = folder.newFile();
+        final Writer writer = new OutputStreamWriter(new FileOutputStream(file), "UTF-8");
+        try {
+            writer.write("42\n10 1000 abc 7 a.dat\n20 2000 def 8 b.d");
+        } finally {
+            writer.close();
+        }
+        final PathIndex index = PathIndex.load(file);
+        try {
+            assertEquals(1, index.size());
+            assertNull(index.get("b.d"));
+        } finally {
+            index.close();
+        }
+    }
+
+    @Test
+    public void indexesNothingWhenEmpty() throws Exception {
+        final PathIndex index = PathIndex.empty();
+        assertEquals(0, index.size());
+        assertEquals(-1, index.indexOf("a.dat"));
+        assertNull(index.getHeader());
+        index.delete();
+    }
+
+    private File write(String header, String... lines) throws Exception {
+        final File file = folder.newFile();
+        final Writer writer = new OutputStreamWriter(new FileOutputStream(file), "UTF-8");
+        try {
+            writer.write(header + "\n");
+            for (String line : lines) {
+                writer.write(line + "\n");
+            }
+        } finally {
+            writer.close();
+        }
+        return file;
+    }
+
+}
@@ -0,0 +1,113 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2015 Bruno P. Kinoshita, BioUno team
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package org.biouno.figshare;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.Test;
+
+import hudson.AbortException;
+
+/**
+ * Tests for {@link PublishResult}.
+ *
+ * @author Bruno P. Kinoshita
+ * @since 0.2
+ */
+public class PublishResultTest {
+
+    @Test
+    public void readsEveryRecord() throws Exception {
+        final PublishResult result = new PublishResult(42, new UploadStatistics());
+        result.addFile("a.dat", "7");
+        result.addDigest("abc", "42/7");
+        result.addManifestEntry("a.dat", new ArticleManifest.Entry(10, 1000, "abc", "7"));
+        result.addCompleted("a.dat");
+        result.addRemoved("dir/name with spaces.dat");
+        result.close();
+        assertEquals("[F 7 a.dat, D abc 42/7, M 10 1000 abc 7 a.dat, C a.dat, R dir/name with spaces.dat]",
+                read(result, false).toString());
+    }
+
+    @Test
+    public void keepsTheDigestsOfAFailedPublication() throws Exception {
+        final PublishResult result = new PublishResult(42, new UploadStatistics());
+        result.addFile("a.dat", "7");
+        result.addDigest("abc", "42/7");
+        result.addManifestEntry("a.dat", new ArticleManifest.Entry(10, 1000, "abc", "7"));
+        result.addCompleted("a.dat");
+        final AbortException failure = new AbortException("1 of 2 files failed to upload");
+        final PublishResult.IncompleteException incomplete = result.incomplete(failure);
+        assertSame(failure, incomplete.getFailure());
+        assertEquals("[D abc 42/7, M 10 1000 abc 7 a.dat]", read(incomplete.getResult(), true).toString());
+    }
+
+    @Test
+    public void wrapsARuntimeFailure() throws Exception {
+        final PublishResult result = new PublishResult(42, new UploadStatistics());
+        final IllegalStateException failure = new IllegalStateException("broken");
+        final PublishResult.IncompleteException incomplete = result.incomplete(failure);
+        assertSame(incomplete, incomplete.getFailure());
+        assertEquals("broken", incomplete.getFailure().getMessage());
+        assertEquals("[]", read(incomplete.getResult(), true).toString());
+    }
+
+    private static List<String> read(PublishResult result, boolean kept) throws Exception {
+        final List<String> read = new ArrayList<String>();
+        final PublishResult.Records records = new PublishResult.Records() {
+            @Override
+            void file(String path, String fileId) {
+                read.add("F " + fileId + " " + path);
+            }
+
+            @Override
+            void digest(String digest, String figshareFile) {
+                read.add("D " + digest + " " + figshareFile);
+            }
+
+            @Override
+            void manifestEntry(String path, ArticleManifest.Entry entry) {
+                read.add("M " + entry.getSize() + " " + entry.getLastModified() + " " + entry.getDigest() + " "
+                        + entry.getFileId() + " " + path);
+            }
+
+            @Override
+            void completed(String path) {
+                read.add("C " + path);
+            }
+
+            @Override
+            void removed(String path) {
+                read.add("R " + path);
+            }
+        };
+        result.read(null, kept ? PublishResult.Records.kept(records) : records);
+        return read;
+    }
+
+}
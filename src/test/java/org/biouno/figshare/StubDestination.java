@@ -0,0 +1,128 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2015 Bruno P. Kinoshita, BioUno team
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package org.biouno.figshare;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.InputStream;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Stand-in for figshare, receiving the uploaded files in tests and
+ * benchmarks. Each file is read whole, as if it was sent in a request body.
+ *
+ * @author Bruno P. Kinoshita
+ * @since 0.2
+ */
+class StubDestination implements FileUploader.Destination {
+
+    private static final ThreadLocal<byte[]> BUFFER = new ThreadLocal<byte[]>() {
+        @Override
+        protected byte[] initialValue() {
+            return new byte[64 * 1024];
+        }
+    };
+
+    private final long latencyMillis;
+    private final AtomicLong files = new AtomicLong();
+    private final AtomicLong bytes = new AtomicLong();
+
+    /**
+     * @param latencyMillis milliseconds each upload takes, besides reading
+     *            the file
+     */
+    StubDestination(long latencyMillis) {
+        this.latencyMillis = latencyMillis;
+    }
+
+    /*
+     * (non-Javadoc)
+     * 
+     * @see org.biouno.figshare.FileUploader.Destination#upload(long,
+     * java.io.File)
+     */
+    @Override
+    public org.biouno.figshare.v1.model.File upload(long articleId, File file) throws Exception {
+        final byte[] buffer = BUFFER.get();
+        long size = 0;
+        final InputStream in = new FileInputStream(file);
+        try {
+            for (int n; (n = in.read(buffer)) >= 0;) {
+                size += n;
+            }
+        } finally {
+            in.close();
+        }
+        if (latencyMillis > 0) {
+            Thread.sleep(latencyMillis);
+        }
+        bytes.addAndGet(size);
+        return uploaded(files.incrementAndGet(), file.getName(), size);
+    }
+
+    /**
+     * @return number of files uploaded
+     */
+    long getFiles() {
+        return files.get();
+    }
+
+    /**
+     * @return number of bytes uploaded
+     */
+    long getBytes() {
+        return bytes.get();
+    }
+
+    /**
+     * @param id figshare file ID
+     * @param name file name
+     * @param size file size, in bytes
+     * @return the figshare file, as returned by the figshare API client
+     */
+    static org.biouno.figshare.v1.model.File uploaded(final long id, final String name, final long size) {
+        return new org.biouno.figshare.v1.model.File() {
+            @Override
+            public Long getId() {
+                return id;
+            }
+
+            @Override
+            public String getName() {
+                return name;
+            }
+
+            @Override
+            public String getSize() {
+                return String.valueOf(size);
+            }
+
+            @Override
+            public String getMimeType() {
+                return "application/octet-stream";
+            }
+        };
+    }
+
+}
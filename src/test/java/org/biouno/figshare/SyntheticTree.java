@@ -0,0 +1,101 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2015 Bruno P. Kinoshita, BioUno team
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package org.biouno.figshare;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Random;
+
+import hudson.Util;
+
+/**
+ * Synthetic workspaces, with many small files spread across directories.
+ *
+ * @author Bruno P. Kinoshita
+ * @since 0.2
+ */
+final class SyntheticTree {
+
+    private SyntheticTree() {
+    }
+
+    /**
+     * Create a tree in a temporary directory. Every directory holds
+     * <code>filesPerDirectory</code> files named <code>*.dat</code>, matched
+     * by <code>**&#47;*.dat</code>, and one <code>*.txt</code> file that is
+     * not.
+     *
+     * @param files number of <code>*.dat</code> files
+     * @param filesPerDirectory number of <code>*.dat</code> files per
+     *            directory
+     * @param size size of each <code>*.dat</code> file, in bytes, with
+     *            random content
+     * @return the root of the tree
+     * @throws IOException if the tree cannot be created
+     */
+    static File create(int files, int filesPerDirectory, int size) throws IOException {
+        final File root = File.createTempFile("figshare-tree", "");
+        if (!root.delete() || !root.mkdir()) {
+            throw new IOException("Could not create " + root);
+        }
+        final Random random = new Random(files);
+        final byte[] content = new byte[size];
+        File dir = null;
+        for (int i = 0; i < files; i++) {
+            if (i % filesPerDirectory == 0) {
+                dir = new File(root, String.format("d%05d/e%03d", i / filesPerDirectory / 100,
+                        i / filesPerDirectory % 100));
+                if (!dir.mkdirs()) {
+                    throw new IOException("Could not create " + dir);
+                }
+                write(new File(dir, "README.txt"), content, 0);
+            }
+            random.nextBytes(content);
+            write(new File(dir, String.format("f%07d.dat", i)), content, size);
+        }
+        return root;
+    }
+
+    private static void write(File file, byte[] content, int size) throws IOException {
+        final OutputStream out = new FileOutputStream(file);
+        try {
+            out.write(content, 0, size);
+        } finally {
+            out.close();
+        }
+    }
+
+    /**
+     * @param root root of a tree
+     * @throws IOException if the tree cannot be deleted
+     */
+    static void delete(File root) throws IOException {
+        if (root != null) {
+            Util.deleteRecursive(root);
+        }
+    }
+
+}
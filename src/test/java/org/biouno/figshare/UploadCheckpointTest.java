@@ -0,0 +1,179 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2015 Bruno P. Kinoshita, BioUno team
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package org.biouno.figshare;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+/**
+ * Tests for {@link UploadCheckpoint}.
+ *
+ * @author Bruno P. Kinoshita
+ * @since 0.2
+ */
+public class UploadCheckpointTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private File workspace;
+    private File a;
+    private File b;
+
+    @Before
+    public void setUp() throws IOException {
+        workspace = folder.newFolder("workspace");
+        a = file("a.dat", 10);
+        b = file("dir/name with spaces.dat", 20);
+    }
+
+    @Test
+    public void resumesTheFilesCompleted() throws Exception {
+        final UploadCheckpoint checkpoint = new UploadCheckpoint(workspace, "fingerprint");
+        assertEquals(-1, checkpoint.getArticleId());
+        checkpoint.start(42);
+        checkpoint.completed("a.dat", a, "abc", "7");
+        checkpoint.completed("dir/name with spaces.dat", b, null, null);
+        checkpoint.close();
+
+        final UploadCheckpoint resumed = new UploadCheckpoint(workspace, "fingerprint");
+        try {
+            assertEquals(42, resumed.getArticleId());
+            final ArticleManifest.Entry entry = resumed.getCompleted("a.dat", a);
+            assertEquals(10, entry.getSize());
+            assertEquals(a.lastModified(), entry.getLastModified());
+            assertEquals("abc", entry.getDigest());
+            assertEquals("7", entry.getFileId());
+            final ArticleManifest.Entry spaces = resumed.getCompleted("dir/name with spaces.dat", b);
+            assertNull(spaces.getDigest());
+            assertNull(spaces.getFileId());
+            assertNull(resumed.getCompleted("other.dat", a));
+        } finally {
+            resumed.close();
+        }
+    }
+
+    @Test
+    public void appendsToAResumedCheckpoint() throws Exception {
+        final UploadCheckpoint checkpoint = new UploadCheckpoint(workspace, "fingerprint");
+        checkpoint.start(42);
+        checkpoint.completed("a.dat", a, "abc", "7");
+        checkpoint.close();
+
+        final UploadCheckpoint resumed = new UploadCheckpoint(workspace, "fingerprint");
+        resumed.resume();
+        resumed.completed("dir/name with spaces.dat", b, "def", "8");
+        // uploaded again, the last upload wins
+        resumed.completed("a.dat", a, "abc", "9");
+        resumed.close();
+
+        final UploadCheckpoint again = new UploadCheckpoint(workspace, "fingerprint");
+        try {
+            assertEquals(42, again.getArticleId());
+            assertEquals("9", again.getCompleted("a.dat", a).getFileId());
+            assertEquals("8", again.getCompleted("dir/name with spaces.dat", b).getFileId());
+        } finally {
+            again.close();
+        }
+    }
+
+    @Test
+    public void uploadsAgainFilesThatChanged() throws Exception {
+        final UploadCheckpoint checkpoint = new UploadCheckpoint(workspace, "fingerprint");
+        checkpoint.start(42);
+        checkpoint.completed("a.dat", a, "abc", "7");
+        checkpoint.close();
+        a = file("a.dat", 11);
+
+        final UploadCheckpoint resumed = new UploadCheckpoint(workspace, "fingerprint");
+        try {
+            assertNull(resumed.getCompleted("a.dat", a));
+        } finally {
+            resumed.close();
+        }
+    }
+
+    @Test
+    public void findsManyFiles() throws Exception {
+        final UploadCheckpoint checkpoint = new UploadCheckpoint(workspace, "fingerprint");
+        checkpoint.start(42);
+        for (int i = 0; i < 10000; i++) {
+            checkpoint.completed("f" + i, a, null, String.valueOf(i));
+        }
+        checkpoint.close();
+
+        final UploadCheckpoint resumed = new UploadCheckpoint(workspace, "fingerprint");
+        try {
+            for (int i = 0; i < 10000; i++) {
+                assertEquals(String.valueOf(i), resumed.getCompleted("f" + i, a).getFileId());
+            }
+        } finally {
+            resumed.close();
+        }
+    }
+
+    @Test
+    public void keepsOneCheckpointPerConfiguration() throws Exception {
+        final UploadCheckpoint checkpoint = new UploadCheckpoint(workspace, "fingerprint");
+        checkpoint.start(42);
+        checkpoint.close();
+        assertEquals(-1, new UploadCheckpoint(workspace, "other").getArticleId());
+        assertTrue(UploadCheckpoint.isCheckpoint(UploadCheckpoint.FILE_NAME_PREFIX + "fingerprint"));
+        assertFalse(UploadCheckpoint.isCheckpoint("dir/" + UploadCheckpoint.FILE_NAME_PREFIX + "fingerprint"));
+    }
+
+    @Test
+    public void deletesTheCheckpoint() throws Exception {
+        final UploadCheckpoint checkpoint = new UploadCheckpoint(workspace, "fingerprint");
+        checkpoint.start(42);
+        checkpoint.completed("a.dat", a, "abc", "7");
+        checkpoint.delete();
+        assertFalse(new File(workspace, UploadCheckpoint.FILE_NAME_PREFIX + "fingerprint").exists());
+        assertEquals(-1, new UploadCheckpoint(workspace, "fingerprint").getArticleId());
+    }
+
+    private File file(String path, int size) throws IOException {
+        final File file = new File(workspace, path);
+        assertTrue(file.getParentFile().isDirectory() || file.getParentFile().mkdirs());
+        final FileOutputStream out = new FileOutputStream(file);
+        try {
+            out.write(new byte[size]);
+        } finally {
+            out.close();
+        }
+        return file;
+    }
+
+}
@@ -0,0 +1,98 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2015 Bruno P. Kinoshita, BioUno team
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package org.biouno.figshare;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.util.Map;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+/**
+ * Tests for {@link UploadIndex}.
+ *
+ * @author Bruno P. Kinoshita
+ * @since 0.2
+ */
+public class UploadIndexTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void savesAndLoadsThePublishedDigests() throws Exception {
+        final File dir = folder.getRoot();
+        assertTrue(UploadIndex.load(dir).snapshot().isEmpty());
+        final UploadIndex index = UploadIndex.load(dir);
+        index.put("abc", "42/7");
+        index.put("def", "42/8");
+        index.save();
+        assertTrue(new File(dir, UploadIndex.FILE_NAME).isFile());
+
+        final Map<String, String> loaded = UploadIndex.load(dir).snapshot();
+        assertEquals(2, loaded.size());
+        assertEquals("42/7", loaded.get("abc"));
+        assertEquals("42/8", loaded.get("def"));
+    }
+
+    @Test
+    public void mergesTheDigestsOfConcurrentBuilds() throws Exception {
+        final File dir = folder.getRoot();
+        final UploadIndex first = UploadIndex.load(dir);
+        final UploadIndex second = UploadIndex.load(dir);
+        first.put("abc", "42/7");
+        second.put("def", "43/8");
+        second.put("abc", "43/9");
+        first.save();
+        second.save();
+        final Map<String, String> loaded = UploadIndex.load(dir).snapshot();
+        assertEquals(2, loaded.size());
+        assertEquals("43/9", loaded.get("abc"));
+        assertEquals("43/8", loaded.get("def"));
+        assertEquals(loaded, second.snapshot());
+    }
+
+    @Test
+    public void evictsTheLeastRecentlyUsedDigests() throws Exception {
+        final File dir = folder.getRoot();
+        final UploadIndex index = UploadIndex.load(dir);
+        for (int i = 0; i <= UploadIndex.MAX_ENTRIES; i++) {
+            index.put("digest" + i, "42/" + i);
+        }
+        // used again, so the next oldest goes
+        index.put("digest0", "42/0");
+        index.save();
+        final Map<String, String> loaded = UploadIndex.load(dir).snapshot();
+        assertEquals(UploadIndex.MAX_ENTRIES, loaded.size());
+        assertTrue(loaded.containsKey("digest0"));
+        assertFalse(loaded.containsKey("digest1"));
+        assertTrue(loaded.containsKey("digest" + UploadIndex.MAX_ENTRIES));
+    }
+
+}
@@ -0,0 +1,129 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2015 Bruno P. Kinoshita, BioUno team
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package org.biouno.figshare;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+/**
+ * Tests for {@link UploadPlan}.
+ *
+ * @author Bruno P. Kinoshita
+ * @since 0.2
+ */
+public class UploadPlanTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void queuesTheLargestFilesFirst() throws Exception {
+        final UploadPlan plan = new UploadPlan();
+        final ArticleManifest.Entry previous = new ArticleManifest.Entry(1, 1, null, null);
+        plan.add("small", file("small", 10), null);
+        plan.add("large", file("large", 1000), previous);
+        plan.add("medium", file("medium", 100), null);
+        final List<String> queued = new ArrayList<String>();
+        final List<ArticleManifest.Entry> previousVersions = new ArrayList<ArticleManifest.Entry>();
+        final ByteArrayOutputStream out = new ByteArrayOutputStream();
+        plan.submit(new UploadPlan.Queue() {
+            @Override
+            public void queue(String path, File file, ArticleManifest.Entry previous) {
+                queued.add(path);
+                previousVersions.add(previous);
+            }
+        }, 2, 0, new PrintStream(out, true));
+        assertEquals("[large, medium, small]", queued.toString());
+        assertSame(previous, previousVersions.get(0));
+        assertNull(previousVersions.get(1));
+        assertFalse(plan.isPartial());
+        assertTrue(plan.contains("medium"));
+        assertFalse(plan.contains("other"));
+        assertTrue(out.toString(), out.toString().startsWith("Upload plan: 3 file(s)"));
+        assertTrue(out.toString(), out.toString().contains("unknown until a publication"));
+    }
+
+    @Test
+    public void keepsOnlyTheLargestFiles() throws Exception {
+        final UploadPlan plan = new UploadPlan();
+        final int files = UploadPlan.MAX_PLANNED + 5;
+        for (int i = 0; i < files; i++) {
+            plan.add("f" + i, file("f" + i, i), null);
+        }
+        final List<String> queued = new ArrayList<String>();
+        plan.submit(new UploadPlan.Queue() {
+            @Override
+            public void queue(String path, File file, ArticleManifest.Entry previous) {
+                queued.add(path);
+            }
+        }, 4, 0, new PrintStream(new ByteArrayOutputStream()));
+        assertEquals(UploadPlan.MAX_PLANNED, queued.size());
+        assertEquals("f" + (files - 1), queued.get(0));
+        assertEquals("f5", queued.get(queued.size() - 1));
+        assertTrue(plan.isPartial());
+        assertFalse(plan.contains("f4"));
+        assertTrue(plan.contains("f5"));
+    }
+
+    @Test
+    public void queuesNothingWithoutFiles() throws Exception {
+        final UploadPlan plan = new UploadPlan();
+        final ByteArrayOutputStream out = new ByteArrayOutputStream();
+        plan.submit(new UploadPlan.Queue() {
+            @Override
+            public void queue(String path, File file, ArticleManifest.Entry previous) {
+                throw new AssertionError(path);
+            }
+        }, 1, 0, new PrintStream(out));
+        assertEquals(0, out.size());
+        assertFalse(plan.isPartial());
+    }
+
+    private File file(String name, int size) throws IOException {
+        final File file = folder.newFile(name);
+        final FileOutputStream out = new FileOutputStream(file);
+        try {
+            out.write(new byte[size]);
+        } finally {
+            out.close();
+        }
+        return file;
+    }
+
+}
@@ -0,0 +1,111 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2015 Bruno P. Kinoshita, BioUno team
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package org.biouno.figshare;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+/**
+ * Tests for the percentiles of {@link UploadStatistics}, estimated from
+ * histograms whose buckets are a quarter of a doubling wide.
+ *
+ * @author Bruno P. Kinoshita
+ * @since 0.2
+ */
+public class UploadStatisticsTest {
+
+    @Test
+    public void hasNoPercentilesWithoutUploads() {
+        final UploadStatistics statistics = new UploadStatistics();
+        assertEquals(0, statistics.getP50Millis());
+        assertEquals(0, statistics.getP99Millis());
+        assertEquals(0, statistics.getHashP50Millis());
+    }
+
+    @Test
+    public void estimatesLatencyPercentilesWithinABucket() {
+        final UploadStatistics statistics = new UploadStatistics();
+        for (int i = 0; i < 98; i++) {
+            statistics.uploaded(1, 0, 1000, 1100);
+        }
+        statistics.uploaded(1, 0, 1000, 3000);
+        statistics.uploaded(1, 0, 1000, 11000);
+        assertWithinABucket(100, statistics.getP50Millis());
+        assertWithinABucket(2000, statistics.getP99Millis());
+        assertWithinABucket(10000, statistics.getLatencyPercentile(1));
+        assertWithinABucket(100, statistics.getLatencyPercentile(0));
+    }
+
+    @Test
+    public void estimatesHashPercentiles() {
+        final UploadStatistics statistics = new UploadStatistics();
+        for (int i = 0; i < 10; i++) {
+            statistics.hashed(1, i < 9 ? 5 : 500);
+        }
+        assertWithinABucket(5, statistics.getHashP50Millis());
+        assertWithinABucket(500, statistics.getHashP99Millis());
+        assertEquals(10 * 1000 / 545, statistics.getHashBytesPerSecond());
+    }
+
+    @Test
+    public void countsUploadsFasterThanAMillisecond() {
+        final UploadStatistics statistics = new UploadStatistics();
+        statistics.uploaded(1, 0, 1000, 1000);
+        assertEquals(1, statistics.getP50Millis());
+    }
+
+    @Test
+    public void addsTheHistogramsOfShards() {
+        final UploadStatistics shard1 = new UploadStatistics();
+        final UploadStatistics shard2 = new UploadStatistics();
+        for (int i = 0; i < 60; i++) {
+            shard1.uploaded(10, 5, 1000, 1050);
+        }
+        for (int i = 0; i < 40; i++) {
+            shard2.uploaded(10, 7, 2000, 3000);
+        }
+        shard2.retried();
+        final UploadStatistics total = new UploadStatistics();
+        total.add(shard1);
+        total.add(shard2);
+        assertEquals(100, total.getFiles());
+        assertEquals(1000, total.getBytes());
+        assertEquals(1, total.getRetries());
+        assertEquals(7, total.getMaxQueueWaitMillis());
+        assertEquals(2000, total.getUploadMillis());
+        assertWithinABucket(50, total.getP50Millis());
+        assertWithinABucket(1000, total.getP99Millis());
+    }
+
+    /**
+     * The estimate is the upper bound of the bucket of the value.
+     */
+    private static void assertWithinABucket(long expected, long actual) {
+        assertTrue(expected + " estimated as " + actual,
+                actual >= expected && actual <= Math.ceil(expected * Math.pow(2, 0.25)));
+    }
+
+}
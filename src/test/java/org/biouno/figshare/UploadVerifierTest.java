@@ -0,0 +1,132 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2015 Bruno P. Kinoshita, BioUno team
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package org.biouno.figshare;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+/**
+ * Tests for {@link UploadVerifier}.
+ *
+ * @author Bruno P. Kinoshita
+ * @since 0.2
+ */
+public class UploadVerifierTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void matchesSizesInBytesExactly() {
+        assertTrue(UploadVerifier.matches("1024", 1024));
+        assertTrue(UploadVerifier.matches("1024 B", 1024));
+        assertFalse(UploadVerifier.matches("1024", 1025));
+        assertFalse(UploadVerifier.matches("1024.0", 1024));
+    }
+
+    @Test
+    public void matchesSizesInUnitsOf1000Or1024() {
+        assertTrue(UploadVerifier.matches("1.5 MB", 1572864));
+        assertTrue(UploadVerifier.matches("1.5 MB", 1500000));
+        assertTrue(UploadVerifier.matches("1.5mb", 1500000));
+        assertTrue(UploadVerifier.matches("10.0 GB", 10737418240L));
+        assertTrue(UploadVerifier.matches("10.0 GB", 10000000000L));
+        assertTrue(UploadVerifier.matches("2 TB", 2L * 1024 * 1024 * 1024 * 1024));
+    }
+
+    @Test
+    public void matchesWithinThePrecisionOfTheDigits() {
+        // rounded down from 1.45 or truncated from up to 1.59
+        assertTrue(UploadVerifier.matches("1.5 MB", 1450000));
+        assertTrue(UploadVerifier.matches("1.5 MB", 1599999));
+        assertFalse(UploadVerifier.matches("1.5 MB", 1400000));
+        assertFalse(UploadVerifier.matches("1.5 MB", 1700000));
+        assertTrue(UploadVerifier.matches("1 KB", 1500));
+        assertFalse(UploadVerifier.matches("1 KB", 2100));
+        // a whole gigabyte short, beyond a tenth of one
+        assertFalse(UploadVerifier.matches("10.0 GB", 10307921510L));
+    }
+
+    @Test
+    public void doesNotMatchUnreadableSizes() {
+        assertFalse(UploadVerifier.matches(null, 0));
+        assertFalse(UploadVerifier.matches("", 0));
+        assertFalse(UploadVerifier.matches("about 1 MB", 1000000));
+        assertFalse(UploadVerifier.matches("1 PB", 1));
+    }
+
+    @Test
+    public void verifiesTheReportedSize() throws Exception {
+        final File file = file(2048);
+        final UploadVerifier verifier = new UploadVerifier(file);
+        assertNull(verifier.verify("2 KB"));
+        assertTrue(verifier.isSizeChecked());
+        assertEquals("figshare reports 3 KB, the file has 2048 bytes", verifier.verify("3 KB"));
+        assertTrue(verifier.isSizeChecked());
+    }
+
+    @Test
+    public void doesNotCheckUnreadableSizesUnlessStrict() throws Exception {
+        final UploadVerifier verifier = new UploadVerifier(file(2048));
+        final String problem = verifier.verify("unknown");
+        assertFalse(verifier.isSizeChecked());
+        assertEquals(UploadVerifier.STRICT, problem != null);
+    }
+
+    @Test
+    public void failsWhenTheFileChanged() throws Exception {
+        final File file = file(2048);
+        final UploadVerifier verifier = new UploadVerifier(file);
+        final FileOutputStream out = new FileOutputStream(file, true);
+        try {
+            out.write(1);
+        } finally {
+            out.close();
+        }
+        assertEquals("the file changed while it was uploaded", verifier.verify("2049"));
+        assertFalse(verifier.isSizeChecked());
+    }
+
+    private File file(int size) throws IOException {
+        final File file = folder.newFile();
+        final FileOutputStream out = new FileOutputStream(file);
+        try {
+            out.write(new byte[size]);
+        } finally {
+            out.close();
+        }
+        return file;
+    }
+
+}